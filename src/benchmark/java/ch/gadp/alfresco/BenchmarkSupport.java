@@ -0,0 +1,85 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shared setup of the benchmarks: a filter configured without Spring context nor repository.
+ */
+final class BenchmarkSupport {
+
+    /**
+     * Request attribute holding the user name the filter authenticated in Share
+     */
+    static final String ATTR_AUTHENTICATED_USER = "benchmark.authenticatedUser";
+
+    static final FilterChain NOOP_CHAIN = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) {
+        }
+    };
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @return A configuration pointing to a local repository and Google, which the measured paths never call
+     */
+    static Map<String, String> defaultValues() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(OAuthFilterConfiguration.REPOSITORY_PROTOCOL, "http");
+        values.put(OAuthFilterConfiguration.REPOSITORY_HOST, "localhost");
+        values.put(OAuthFilterConfiguration.REPOSITORY_PORT, "8080");
+        values.put(OAuthFilterConfiguration.REPOSITORY_API, "/alfresco/service/api");
+        values.put(OAuthFilterConfiguration.REPOSITORY_ADMIN_USER, "admin");
+        values.put(OAuthFilterConfiguration.REPOSITORY_ADMIN_PASSWORD, "admin");
+        values.put(OAuthFilterConfiguration.USER_PASSWORD, "secret");
+        values.put(OAuthFilterConfiguration.USER_DOMAIN, "example.com,*.example.org");
+        values.put(OAuthFilterConfiguration.API_NAME, "Google2Api");
+        values.put(OAuthFilterConfiguration.API_KEY, "benchmark.apps.googleusercontent.com");
+        values.put(OAuthFilterConfiguration.API_SECRET, "benchmark");
+        values.put(OAuthFilterConfiguration.API_SCOPE, "https://www.googleapis.com/auth/userinfo.email https://www.googleapis.com/auth/userinfo.profile");
+        values.put(OAuthFilterConfiguration.API_URI, "https://www.googleapis.com/oauth2/v1/userinfo");
+        values.put(OAuthFilterConfiguration.FILTER_EXCLUDE_PREFIXES, "/res/");
+        values.put(OAuthFilterConfiguration.FILTER_EXCLUDE_SUFFIXES, ".css,.js,.png");
+        return values;
+    }
+
+    /**
+     * Creates a filter whose Share authentication always succeeds and is recorded in the request attributes
+     * @param values The configuration values
+     * @return The configured filter, to be destroyed by the caller
+     */
+    static OAuthSSOAuthenticationFilter newFilter(Map<String, String> values) {
+        OAuthSSOAuthenticationFilter filter = new OAuthSSOAuthenticationFilter() {
+            @Override
+            protected boolean authenticateUser(HttpServletRequest request, String username) {
+                request.setAttribute(ATTR_AUTHENTICATED_USER, username);
+                return true;
+            }
+        };
+        filter.configure(new OAuthFilterConfiguration(values));
+        return filter;
+    }
+}
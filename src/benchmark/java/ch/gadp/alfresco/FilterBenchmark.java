@@ -0,0 +1,150 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.extensions.surf.UserFactory;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the paths of OAuthSSOAuthenticationFilter.doFilter which do not call any backend.
+ * Run with: mvn -Pbenchmark integration-test -Dbenchmark.include=FilterBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    private OAuthSSOAuthenticationFilter filter;
+
+    /**
+     * The mocks are per thread as the filter writes to the response and session
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+
+        MockHttpServletRequest authenticated;
+        MockHttpServletRequest bypassed;
+        MockHttpServletRequest anonymous;
+        MockHttpServletRequest xhr;
+        MockHttpServletRequest resource;
+        MockHttpServletResponse response;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            authenticated = request("/page", "/site-index");
+            authenticated.session.setAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_ID, "jdoe");
+
+            bypassed = request("/page", "/site-index");
+            bypassed.session.setAttribute(OAuthSSOAuthenticationFilter.ATTR_BYPASS_OAUTH, Boolean.TRUE);
+
+            anonymous = request("/page", "/site-index");
+            anonymous.session = null;
+
+            xhr = request("/proxy", "/alfresco/api/people");
+            xhr.session = null;
+            xhr.headers.put("X-Requested-With", "XMLHttpRequest");
+
+            resource = request("/res", "/css/base.css");
+            resource.session = null;
+
+            response = new MockHttpServletResponse();
+        }
+
+        private static MockHttpServletRequest request(String servletPath, String pathInfo) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.contextPath = "/share";
+            request.servletPath = servletPath;
+            request.pathInfo = pathInfo;
+            request.requestURI = request.contextPath + servletPath + pathInfo;
+            return request;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        filter = BenchmarkSupport.newFilter(BenchmarkSupport.defaultValues());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.destroy();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse authenticated(Requests requests) throws IOException, ServletException {
+        filter.doFilter(requests.authenticated, requests.response, BenchmarkSupport.NOOP_CHAIN);
+        return requests.response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse bypass(Requests requests) throws IOException, ServletException {
+        filter.doFilter(requests.bypassed, requests.response, BenchmarkSupport.NOOP_CHAIN);
+        return requests.response;
+    }
+
+    @Benchmark
+    public String unauthenticatedRedirect(Requests requests) throws IOException, ServletException {
+        filter.doFilter(requests.anonymous, requests.response, BenchmarkSupport.NOOP_CHAIN);
+        return requests.response.sentRedirect;
+    }
+
+    @Benchmark
+    public int unauthenticatedXhr(Requests requests) throws IOException, ServletException {
+        filter.doFilter(requests.xhr, requests.response, BenchmarkSupport.NOOP_CHAIN);
+        return requests.response.status;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse excludedResource(Requests requests) throws IOException, ServletException {
+        filter.doFilter(requests.resource, requests.response, BenchmarkSupport.NOOP_CHAIN);
+        return requests.response;
+    }
+
+    @Benchmark
+    public boolean isUserValidExact() {
+        return filter.isUserValid("john.doe@example.com");
+    }
+
+    @Benchmark
+    public boolean isUserValidWildcard() {
+        return filter.isUserValid("john.doe@mail.eu.example.org");
+    }
+
+    @Benchmark
+    public boolean isUserValidRejected() {
+        return filter.isUserValid("john.doe@example.net");
+    }
+}
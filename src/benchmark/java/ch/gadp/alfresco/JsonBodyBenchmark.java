@@ -0,0 +1,68 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the repository JSON bodies written by JsonRequestEntity with the former string concatenation,
+ * which did not escape anything.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBodyBenchmark {
+
+    private String userName = "john.doe";
+    private String firstName = "John";
+    private String lastName = "O'Doe \"Jr\"";
+    private String email = "john.doe@example.com";
+
+    @Benchmark
+    public byte[] jsonRequestEntity() {
+        return new JsonRequestEntity()
+                .property("userName", userName)
+                .property("firstName", firstName)
+                .property("lastName", lastName)
+                .property("email", email)
+                .toByteArray();
+    }
+
+    @Benchmark
+    public byte[] concatenation() throws UnsupportedEncodingException {
+        String json = "{\"userName\":\"" + userName + "\"," +
+                "\"firstName\":\"" + firstName + "\"," +
+                "\"lastName\":\"" + lastName + "\"," +
+                "\"email\":\"" + email + "\"}";
+        return json.getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,239 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reproduces a morning login storm: concurrent OAuth callbacks, each with its own code, go through doFilter
+ * against the LocalBackendStub. Prints throughput, latency percentiles, errors and backend connections
+ * for each scenario, followed by the latencies of each login stage, so that configurations can be compared
+ * on the same machine.
+ * <p/>
+ * Usage: LoginStorm [scenario...] where a scenario is one of the predefined names below or
+ * "name:section.key=value,section.key=value" to override configuration values.
+ * Sizing is read from system properties: storm.logins (2000), storm.concurrency (50), storm.users (500),
+ * storm.warmup (500), storm.provider-latency (50 ms), storm.repository-latency (20 ms), storm.error-rate (0),
+ * storm.profile-size (0 bytes) and storm.existing-users (true, users already exist in the repository).
+ * <p/>
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Dexec.executable=java
+ * "-Dexec.args=-cp %classpath ch.gadp.alfresco.LoginStorm default single-connection"
+ */
+public class LoginStorm {
+
+    private static final Map<String, String> SCENARIOS = new LinkedHashMap<String, String>();
+
+    static {
+        SCENARIOS.put("default", "");
+        SCENARIOS.put("single-connection", OAuthFilterConfiguration.REPOSITORY_MAX_CONNECTIONS_PER_HOST + "=1");
+        SCENARIOS.put("no-admin-ticket-cache", OAuthFilterConfiguration.REPOSITORY_ADMIN_TICKET_TTL + "=0");
+        SCENARIOS.put("no-user-cache", OAuthFilterConfiguration.REPOSITORY_USER_CACHE_SIZE + "=0");
+        SCENARIOS.put("no-cache", OAuthFilterConfiguration.REPOSITORY_ADMIN_TICKET_TTL + "=0," +
+                OAuthFilterConfiguration.REPOSITORY_USER_CACHE_SIZE + "=0");
+        SCENARIOS.put("upsert", OAuthFilterConfiguration.REPOSITORY_PROVISIONING + "=" +
+                OAuthFilterConfiguration.PROVISIONING_UPSERT);
+        SCENARIOS.put("async-updates", OAuthFilterConfiguration.REPOSITORY_ASYNC_UPDATE_THREADS + "=4");
+        SCENARIOS.put("openid", OAuthFilterConfiguration.API_OPENID + "=true");
+    }
+
+    private final int logins = Integer.getInteger("storm.logins", 2000);
+    private final int concurrency = Integer.getInteger("storm.concurrency", 50);
+    private final int users = Integer.getInteger("storm.users", 500);
+    private final int warmup = Integer.getInteger("storm.warmup", 500);
+    private final boolean existingUsers = Boolean.parseBoolean(System.getProperty("storm.existing-users", "true"));
+
+    private final LocalBackendStub stub;
+
+    LoginStorm(LocalBackendStub stub) {
+        this.stub = stub;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> scenarios = args.length == 0 ? Arrays.asList("default") : Arrays.asList(args);
+
+        LocalBackendStub stub = new LocalBackendStub(0, "example.com");
+        stub.setProviderLatency(Integer.getInteger("storm.provider-latency", 50));
+        stub.setRepositoryLatency(Integer.getInteger("storm.repository-latency", 20));
+        stub.setErrorRate(Double.parseDouble(System.getProperty("storm.error-rate", "0")));
+        stub.setProfileSize(Integer.getInteger("storm.profile-size", 0));
+        stub.start();
+        try {
+            LoginStorm storm = new LoginStorm(stub);
+            System.out.println(String.format(Locale.ROOT, "%-24s %8s %9s %9s %9s %9s %7s %6s %s",
+                    "scenario", "login/s", "p50 ms", "p95 ms", "p99 ms", "p999 ms", "errors", "conns", "backend requests"));
+            for (String scenario : scenarios) {
+                storm.run(scenario);
+            }
+        } finally {
+            stub.stop();
+        }
+    }
+
+    /**
+     * Runs the warmup then the measured storm of a scenario with a new filter
+     * @param scenario The scenario name or specification
+     * @throws Exception
+     */
+    void run(String scenario) throws Exception {
+        String name = scenario;
+        String overrides = SCENARIOS.get(scenario);
+        int separator = scenario.indexOf(':');
+        if (overrides == null && separator > 0) {
+            name = scenario.substring(0, separator);
+            overrides = scenario.substring(separator + 1);
+        }
+        if (overrides == null) {
+            throw new IllegalArgumentException("Unknown scenario " + scenario + ", known ones are " + SCENARIOS.keySet());
+        }
+
+        Map<String, String> values = BenchmarkSupport.defaultValues();
+        this.stub.configure(values);
+        for (String override : overrides.split(",")) {
+            int equals = override.indexOf('=');
+            if (equals > 0) {
+                values.put(override.substring(0, equals).trim(), override.substring(equals + 1).trim());
+            }
+        }
+
+        this.stub.setIdTokens(Boolean.parseBoolean(values.get(OAuthFilterConfiguration.API_OPENID)));
+        this.stub.clearPeople();
+        if (this.existingUsers) {
+            for (int i = 0; i < this.users; i++) {
+                this.stub.addPerson(userName("user", i));
+            }
+        }
+
+        OAuthSSOAuthenticationFilter filter = BenchmarkSupport.newFilter(values);
+        try {
+            storm(filter, "warmup", this.warmup);
+            this.stub.reset();
+            filter.getMetrics().reset();
+
+            long start = System.nanoTime();
+            Result result = storm(filter, "user", this.logins);
+            long elapsed = System.nanoTime() - start;
+
+            long[] latencies = result.latencies;
+            Arrays.sort(latencies);
+            System.out.println(String.format(Locale.ROOT, "%-24s %8.1f %9.2f %9.2f %9.2f %9.2f %7d %6d token=%d userinfo=%d login=%d people=%d",
+                    name,
+                    this.logins * 1e9 / elapsed,
+                    percentile(latencies, 0.50), percentile(latencies, 0.95),
+                    percentile(latencies, 0.99), percentile(latencies, 0.999),
+                    result.errors.get(),
+                    this.stub.getConnectionCount(),
+                    this.stub.getRequestCount("token"), this.stub.getRequestCount("userinfo"),
+                    this.stub.getRequestCount("login"), this.stub.getRequestCount("people")));
+            for (LoginMetrics.Stage stage : LoginMetrics.Stage.values()) {
+                LatencySnapshot latency = filter.getMetrics().getLatency(stage);
+                if (latency.getCount() > 0) {
+                    System.out.println(String.format(Locale.ROOT, "    %-20s %8d calls %9.2f %9.2f %9.2f %9.2f mean %.2f",
+                            stage.getLabel(), latency.getCount(), latency.getP50Millis(), latency.getP95Millis(),
+                            latency.getP99Millis(), latency.getP999Millis(), latency.getMeanMillis()));
+                }
+            }
+        } finally {
+            filter.destroy();
+        }
+    }
+
+    /**
+     * Fires the callbacks from a fixed number of threads
+     * @param filter The filter under test
+     * @param prefix The user name prefix
+     * @param count The number of callbacks
+     * @return The latency of each callback and the number of failed ones
+     * @throws Exception
+     */
+    private Result storm(final OAuthSSOAuthenticationFilter filter, final String prefix, int count) throws Exception {
+        final Result result = new Result(count);
+        ExecutorService executor = Executors.newFixedThreadPool(this.concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(count);
+            for (int i = 0; i < count; i++) {
+                final int login = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        String userName = userName(prefix, login % users);
+                        MockHttpServletRequest request = new MockHttpServletRequest();
+                        request.contextPath = "/share";
+                        request.requestURI = "/share/page/";
+                        request.servletPath = "/page";
+                        request.pathInfo = "/";
+                        request.queryString = "code=" + userName + "~" + login;
+                        request.session = null;
+                        MockHttpServletResponse response = new MockHttpServletResponse();
+
+                        long start = System.nanoTime();
+                        try {
+                            filter.doFilter(request, response, BenchmarkSupport.NOOP_CHAIN);
+                        } finally {
+                            result.latencies[login] = System.nanoTime() - start;
+                        }
+                        if (!userName.equals(request.getAttribute(BenchmarkSupport.ATTR_AUTHENTICATED_USER))) {
+                            result.errors.incrementAndGet();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    result.errors.incrementAndGet();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return result;
+    }
+
+    private static String userName(String prefix, int index) {
+        return prefix + index;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static class Result {
+        final long[] latencies;
+        final AtomicInteger errors = new AtomicInteger();
+
+        Result(int count) {
+            this.latencies = new long[count];
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+/**
+ * Records the login stages as Flight Recorder events. Loaded by LoginEvents only when the jdk.jfr API is present
+ */
+final class JfrLoginEvents extends LoginEventSink {
+
+    private final LoginStageEvent probe = new LoginStageEvent();
+
+    JfrLoginEvents() {
+    }
+
+    @Override
+    boolean isEnabled() {
+        return this.probe.isEnabled();
+    }
+
+    @Override
+    Object begin() {
+        LoginStageEvent event = new LoginStageEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void commit(Object started, String stage, int httpStatus, String userHash, long loginId) {
+        LoginStageEvent event = (LoginStageEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.httpStatus = httpStatus;
+            event.userHash = userHash;
+            event.loginId = loginId;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering one stage of an OAuth login.
+ * Disabled by default, enable "ch.gadp.alfresco.LoginStage" in the recording settings to get it.
+ * Only loaded by JfrLoginEvents, on JVMs which have Flight Recorder.
+ */
+@Name("ch.gadp.alfresco.LoginStage")
+@Label("OAuth Login Stage")
+@Category({"Alfresco", "OAuth SSO"})
+@Description("A backend call or the Share authentication of an OAuth login")
+@Enabled(false)
+@StackTrace(false)
+class LoginStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("HTTP Status")
+    @Description("Status of the backend answer, 0 if there was none")
+    int httpStatus;
+
+    @Label("User Hash")
+    @Description("Start of the SHA-256 of the user name")
+    String userHash;
+
+    @Label("Login Id")
+    @Description("Identifier shared by the events of the same login")
+    long loginId;
+}
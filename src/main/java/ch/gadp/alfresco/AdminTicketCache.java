@@ -0,0 +1,138 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the Alfresco admin ticket shared between logins.
+ * The ticket is fetched again only once it has expired or has been invalidated, and concurrent
+ * refreshes are collapsed so that only one login request hits the repository.
+ * A failed admin login is remembered for a short back-off, so that the logins queued behind it
+ * do not each try again. An open repository circuit breaker does not start the back-off: its
+ * BackendUnavailableException is passed on so that the login is answered 503 with its Retry-After.
+ */
+public class AdminTicketCache {
+
+    /**
+     * Fetches a new admin ticket from the repository
+     */
+    public interface TicketLoader {
+        /**
+         * @return The new ticket or null if the repository refused the login
+         * @throws IOException
+         */
+        String loadTicket() throws IOException;
+    }
+
+    private final TicketLoader loader;
+    private final long ttlMillis;
+    private final long failureBackoffMillis;
+    private final AtomicReference<CachedTicket> current = new AtomicReference<CachedTicket>();
+    private final Object refreshLock = new Object();
+    private volatile long failedUntil;
+
+    /**
+     * @param loader The loader used to fetch the ticket
+     * @param ttlMillis How long a ticket is reused. 0 disables the cache
+     * @param failureBackoffMillis How long no new admin login is tried after a failed one
+     */
+    public AdminTicketCache(TicketLoader loader, long ttlMillis, long failureBackoffMillis) {
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        this.failureBackoffMillis = failureBackoffMillis;
+    }
+
+    /**
+     * Gets a valid admin ticket, fetching a new one if needed
+     * @return The ticket or null if none could be obtained, including during the back-off after a failure
+     * @throws IOException
+     */
+    public String getTicket() throws IOException {
+        if (ttlMillis <= 0) {
+            return loader.loadTicket();
+        }
+
+        CachedTicket cached = current.get();
+        if (cached != null && cached.isValid()) {
+            return cached.ticket;
+        }
+        if (isBackingOff()) {
+            return null;
+        }
+
+        synchronized (refreshLock) {
+            // Another thread may have refreshed the ticket, or failed to, while we were waiting
+            cached = current.get();
+            if (cached != null && cached.isValid()) {
+                return cached.ticket;
+            }
+            if (isBackingOff()) {
+                return null;
+            }
+
+            String ticket;
+            try {
+                ticket = loader.loadTicket();
+            } catch (BackendUnavailableException e) {
+                // The breaker already fails fast, and the caller needs the exception to answer 503
+                throw e;
+            } catch (IOException e) {
+                failedUntil = System.currentTimeMillis() + failureBackoffMillis;
+                throw e;
+            }
+            if (ticket != null) {
+                current.set(new CachedTicket(ticket, System.currentTimeMillis() + ttlMillis));
+            } else {
+                failedUntil = System.currentTimeMillis() + failureBackoffMillis;
+            }
+            return ticket;
+        }
+    }
+
+    private boolean isBackingOff() {
+        return System.currentTimeMillis() < failedUntil;
+    }
+
+    /**
+     * Drops the given ticket, typically after the repository answered 401 with it.
+     * A ticket refreshed in the meantime by another request is kept.
+     * @param ticket The rejected ticket
+     */
+    public void invalidate(String ticket) {
+        CachedTicket cached = current.get();
+        if (cached != null && cached.ticket.equals(ticket)) {
+            current.compareAndSet(cached, null);
+        }
+    }
+
+    private static final class CachedTicket {
+        private final String ticket;
+        private final long expiresAt;
+
+        private CachedTicket(String ticket, long expiresAt) {
+            this.ticket = ticket;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isValid() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+    }
+}
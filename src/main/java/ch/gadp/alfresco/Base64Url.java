@@ -0,0 +1,70 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The unpadded URL safe base 64 used by JSON Web Tokens and keys
+ */
+final class Base64Url {
+
+    private Base64Url() {
+    }
+
+    /**
+     * @param value The URL safe base 64 value, with or without padding
+     * @return The decoded bytes
+     */
+    static byte[] decode(String value) {
+        StringBuilder standard = new StringBuilder(value.length() + 3);
+        standard.append(value.replace('-', '+').replace('_', '/'));
+        while (standard.length() % 4 != 0) {
+            standard.append('=');
+        }
+        return Base64.decodeBase64(ascii(standard.toString()));
+    }
+
+    /**
+     * @param bytes The bytes to encode
+     * @return The unpadded URL safe base 64 value
+     */
+    static String encode(byte[] bytes) {
+        String standard;
+        try {
+            standard = new String(Base64.encodeBase64(bytes), "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("US-ASCII is not available", e);
+        }
+        int end = standard.length();
+        while (end > 0 && standard.charAt(end - 1) == '=') {
+            end--;
+        }
+        return standard.substring(0, end).replace('+', '-').replace('/', '_');
+    }
+
+    static byte[] ascii(String value) {
+        try {
+            return value.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("US-ASCII is not available", e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.Arrays;
+
+/**
+ * Character trie matching a string region against a fixed set of keys without allocating.
+ * A forward trie matches key prefixes, a reversed trie walks from the end of the region and matches key suffixes.
+ * The trie is built once and is then read only, so it can be shared between threads.
+ */
+final class CharTrie {
+
+    private final Node root = new Node();
+    private final boolean reversed;
+    private final boolean ignoreCase;
+
+    /**
+     * @param reversed true to match suffixes instead of prefixes
+     * @param ignoreCase true to compare characters case insensitively
+     */
+    CharTrie(boolean reversed, boolean ignoreCase) {
+        this.reversed = reversed;
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Adds a key. Must not be called once the trie is shared
+     * @param key The key
+     */
+    void add(String key) {
+        Node node = root;
+        int length = key.length();
+        for (int i = 0; i < length; i++) {
+            node = node.getOrCreateChild(normalize(key.charAt(reversed ? length - 1 - i : i)));
+        }
+        node.terminal = true;
+    }
+
+    boolean isEmpty() {
+        return root.keys.length == 0 && !root.terminal;
+    }
+
+    /**
+     * Finds the longest key matching the start (or the end for a reversed trie) of the region
+     * @param value The string
+     * @param start The first character of the region
+     * @param end The end of the region, exclusive
+     * @return The length of the longest matching key, or -1 if no key matches
+     */
+    int longestMatch(String value, int start, int end) {
+        Node node = root;
+        int match = node.terminal ? 0 : -1;
+        int length = end - start;
+        for (int i = 0; i < length; i++) {
+            node = node.getChild(normalize(value.charAt(reversed ? end - 1 - i : start + i)));
+            if (node == null) {
+                break;
+            }
+            if (node.terminal) {
+                match = i + 1;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * @param value The string
+     * @param start The first character of the region
+     * @param end The end of the region, exclusive
+     * @return true if a key matches the start (or the end for a reversed trie) of the region
+     */
+    boolean matches(String value, int start, int end) {
+        Node node = root;
+        if (node.terminal) {
+            return true;
+        }
+        int length = end - start;
+        for (int i = 0; i < length; i++) {
+            node = node.getChild(normalize(value.charAt(reversed ? end - 1 - i : start + i)));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private char normalize(char c) {
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        private Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node getOrCreateChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            int insertion = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+
+            Node child = new Node();
+            newKeys[insertion] = c;
+            newChildren[insertion] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling a backend after consecutive failures, so that logins fail fast instead of piling up
+ * container threads on a backend which is down or too slow.
+ * After the open time, a single trial call is let through: its success closes the circuit,
+ * its failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong();
+    private final AtomicBoolean trialInProgress = new AtomicBoolean();
+
+    /**
+     * @param name The backend name, used in messages
+     * @param failureThreshold The number of consecutive failures which opens the circuit. 0 disables the breaker
+     * @param openMillis How long the circuit stays open before a trial call
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Checks that the backend may be called
+     * @throws BackendUnavailableException If the circuit is open
+     */
+    public void acquire() throws BackendUnavailableException {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        long until = openUntil.get();
+        if (until == 0) {
+            return;
+        }
+        long remaining = until - System.currentTimeMillis();
+        if (remaining <= 0 && trialInProgress.compareAndSet(false, true)) {
+            // Half open: this call decides whether the circuit closes
+            return;
+        }
+        throw new BackendUnavailableException("The " + name + " circuit is open",
+                (int) Math.max(1, (remaining + 999) / 1000));
+    }
+
+    /**
+     * Records a call which got an answer from the backend
+     */
+    public void recordSuccess() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        consecutiveFailures.set(0);
+        if (openUntil.get() != 0) {
+            openUntil.set(0);
+            trialInProgress.set(false);
+        }
+    }
+
+    /**
+     * Records a call which failed, timed out or got a server error
+     */
+    public void recordFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || trialInProgress.get()) {
+            openUntil.set(System.currentTimeMillis() + openMillis);
+            trialInProgress.set(false);
+        }
+    }
+
+    /**
+     * @return true if calls are currently refused
+     */
+    public boolean isOpen() {
+        long until = openUntil.get();
+        return until != 0 && until > System.currentTimeMillis();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
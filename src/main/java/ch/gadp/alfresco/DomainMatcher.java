@@ -0,0 +1,130 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Validates user emails against the allowed domains.
+ * Domains are compiled once into case insensitive reversed tries: one for exact domains ("example.com")
+ * and one for wildcard entries ("*.example.com", which matches any subdomain of example.com).
+ * Checking an email is a single scan of the string and does not allocate.
+ */
+public class DomainMatcher {
+
+    private static final String WILDCARD = "*.";
+    private static final String ATEXT_SYMBOLS = "!#$%&'*+-/=?^_`{|}~";
+
+    private final CharTrie exactDomains = new CharTrie(true, true);
+    private final CharTrie wildcardDomains = new CharTrie(true, true);
+    private final boolean empty;
+
+    /**
+     * @param domains Comma separated allowed domains. If blank, any valid email is accepted
+     */
+    public DomainMatcher(String domains) {
+        boolean hasDomain = false;
+        if (StringUtils.isNotBlank(domains)) {
+            for (String domain : StringUtils.split(domains, ',')) {
+                String trimmed = StringUtils.trimToNull(domain);
+                if (trimmed == null) {
+                    continue;
+                }
+                if (trimmed.startsWith(WILDCARD)) {
+                    // Keep the dot so that only whole labels match
+                    wildcardDomains.add(trimmed.substring(1));
+                } else {
+                    exactDomains.add(trimmed);
+                }
+                hasDomain = true;
+            }
+        }
+        this.empty = !hasDomain;
+    }
+
+    /**
+     * @param email The email to check
+     * @return true if the email is well formed and its domain is allowed
+     */
+    public boolean isValid(String email) {
+        if (email == null) {
+            return false;
+        }
+
+        int length = email.length();
+        int at = -1;
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = email.charAt(i);
+            if (c <= ' ' || c == 0x7f) {
+                return false;
+            }
+            if (c == '@') {
+                if (at >= 0 || previous == '.') {
+                    return false;
+                }
+                at = i;
+            } else if (at < 0) {
+                // Local part (RFC 5322 dot-atom): atext characters and single dots between atoms
+                boolean atomChar = c == '.' ? i > 0 && previous != '.' : isAtext(c);
+                if (!atomChar) {
+                    return false;
+                }
+            } else {
+                // Domain part: letters, digits, hyphens and single dots between labels
+                boolean labelChar = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+                if (!labelChar && !(c == '.' && previous != '.' && previous != '@')) {
+                    return false;
+                }
+            }
+            previous = c;
+        }
+
+        if (at <= 0 || at == length - 1 || previous == '.') {
+            return false;
+        }
+
+        if (empty) {
+            return true;
+        }
+
+        int domainStart = at + 1;
+        return exactDomains.longestMatch(email, domainStart, length) == length - domainStart ||
+                wildcardDomains.matches(email, domainStart, length);
+    }
+
+    /**
+     * @param domain A domain, such as the Google Workspace domain of an account
+     * @return true if the domain is allowed
+     */
+    public boolean isAllowedDomain(String domain) {
+        if (domain == null) {
+            return false;
+        }
+        if (empty) {
+            return true;
+        }
+
+        int length = domain.length();
+        return exactDomains.longestMatch(domain, 0, length) == length || wildcardDomains.matches(domain, 0, length);
+    }
+
+    private static boolean isAtext(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || ATEXT_SYMBOLS.indexOf(c) >= 0;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread safe cache bounded in size (least recently used entries are evicted first)
+ * and in age (entries older than the maximum age are ignored and dropped).
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxSize;
+    private final long maxAgeMillis;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * @param maxSize The maximum number of entries. 0 disables the cache
+     * @param maxAgeMillis The maximum age of an entry
+     */
+    public ExpiringLruCache(final int maxSize, long maxAgeMillis) {
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return true if the cache keeps entries at all
+     */
+    public boolean isEnabled() {
+        return maxSize > 0 && maxAgeMillis > 0;
+    }
+
+    /**
+     * @param key The key
+     * @return The value or null if missing or expired
+     */
+    public V get(K key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.createdAt >= maxAgeMillis) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    /**
+     * @param key The key
+     * @param value The value
+     */
+    public void put(K key, V value) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry<V>(value, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @param key The key to drop
+     */
+    public void remove(K key) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long createdAt;
+
+        private Entry(V value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
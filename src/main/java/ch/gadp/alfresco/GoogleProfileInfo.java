@@ -33,6 +33,7 @@ public class GoogleProfileInfo {
     private String picture;
     private String gender;
     private String locale;
+    private String hd;
 
     public String getId() {
         return id;
@@ -105,4 +106,15 @@ public class GoogleProfileInfo {
     public void setLocale(String locale) {
         this.locale = locale;
     }
+
+    /**
+     * @return The Google Workspace domain of the account, null for consumer accounts
+     */
+    public String getHd() {
+        return hd;
+    }
+
+    public void setHd(String hd) {
+        this.hd = hd;
+    }
 }
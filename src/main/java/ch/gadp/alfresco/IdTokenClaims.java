@@ -0,0 +1,57 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The claims of an OpenID Connect id_token used by the filter
+ */
+class IdTokenClaims {
+    String issuer;
+    List<String> audience = new ArrayList<String>();
+    long expiresAt;
+    long issuedAt;
+    String subject;
+    String email;
+    boolean emailVerified;
+    String name;
+    String givenName;
+    String familyName;
+    String picture;
+    String locale;
+    String hostedDomain;
+
+    /**
+     * @return The profile described by the claims
+     */
+    GoogleProfileInfo toProfile() {
+        GoogleProfileInfo profile = new GoogleProfileInfo();
+        profile.setId(subject);
+        profile.setEmail(email);
+        profile.setVerified_email(emailVerified);
+        profile.setName(name);
+        profile.setGiven_name(givenName);
+        profile.setFamily_name(familyName);
+        profile.setPicture(picture);
+        profile.setLocale(locale);
+        profile.setHd(hostedDomain);
+        return profile;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Verifies the OpenID Connect id_token returned with the access token, so that the user profile can be read
+ * from its claims instead of calling the userinfo endpoint.
+ * Only RS256 signed tokens are accepted; the issuer, the audience and the expiry are checked. Whether the email
+ * is verified is left to the filter, which checks it for the userinfo profile as well.
+ */
+public class IdTokenVerifier {
+
+    private static final Log logger = LogFactory.getLog(IdTokenVerifier.class);
+
+    private static final String ALGORITHM = "RS256";
+
+    /**
+     * Finds the public key which signed a token
+     */
+    public interface KeyResolver {
+        /**
+         * @param keyId The "kid" of the token header, may be null
+         * @return The key or null if it is not known
+         * @throws IOException If the keys could not be loaded
+         */
+        PublicKey getKey(String keyId) throws IOException;
+    }
+
+    private final KeyResolver keys;
+    private final Set<String> issuers;
+    private final String audience;
+    private final long clockSkewSeconds;
+
+    /**
+     * @param keys The resolver of the provider keys
+     * @param issuers The accepted "iss" values
+     * @param audience The expected "aud" value, the client id of the application
+     * @param clockSkewSeconds The tolerance applied to the expiry and issue times
+     */
+    public IdTokenVerifier(KeyResolver keys, Collection<String> issuers, String audience, long clockSkewSeconds) {
+        this.keys = keys;
+        this.issuers = new HashSet<String>(issuers);
+        this.audience = audience;
+        this.clockSkewSeconds = clockSkewSeconds;
+    }
+
+    /**
+     * Verifies the signature and the claims of the token
+     * @param idToken The compact serialized token
+     * @return The claims or null if the token is not valid
+     * @throws IOException If the provider keys could not be loaded
+     */
+    public IdTokenClaims verify(String idToken) throws IOException {
+        int headerEnd = idToken.indexOf('.');
+        int payloadEnd = headerEnd < 0 ? -1 : idToken.indexOf('.', headerEnd + 1);
+        if (payloadEnd < 0 || idToken.indexOf('.', payloadEnd + 1) >= 0) {
+            return reject("malformed token");
+        }
+
+        String[] header;
+        IdTokenClaims claims;
+        try {
+            header = readHeader(new String(Base64Url.decode(idToken.substring(0, headerEnd)), "UTF-8"));
+            claims = JsonAdapters.GSON.fromJson(new String(Base64Url.decode(idToken.substring(headerEnd + 1, payloadEnd)), "UTF-8"),
+                    IdTokenClaims.class);
+        } catch (IOException e) {
+            return reject("unreadable token: " + e.getMessage());
+        } catch (JsonParseException e) {
+            return reject("unreadable token: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            return reject("unreadable token: " + e.getMessage());
+        }
+        if (!ALGORITHM.equals(header[0])) {
+            return reject("unsupported algorithm " + header[0]);
+        }
+
+        PublicKey key = this.keys.getKey(header[1]);
+        if (key == null) {
+            return reject("unknown key " + header[1]);
+        }
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initVerify(key);
+            signature.update(Base64Url.ascii(idToken.substring(0, payloadEnd)));
+            if (!signature.verify(Base64Url.decode(idToken.substring(payloadEnd + 1)))) {
+                return reject("invalid signature");
+            }
+        } catch (GeneralSecurityException e) {
+            return reject("invalid signature: " + e.getMessage());
+        }
+
+        if (claims == null || !this.issuers.contains(claims.issuer)) {
+            return reject("unexpected issuer");
+        }
+        if (!claims.audience.contains(this.audience)) {
+            return reject("issued for another audience");
+        }
+        long now = System.currentTimeMillis() / 1000;
+        if (claims.expiresAt + this.clockSkewSeconds < now) {
+            return reject("expired");
+        }
+        if (claims.issuedAt - this.clockSkewSeconds > now) {
+            return reject("issued in the future");
+        }
+        return claims;
+    }
+
+    private static IdTokenClaims reject(String reason) {
+        logger.debug("Rejected id_token: " + reason);
+        return null;
+    }
+
+    /**
+     * @return The "alg" and "kid" of the header
+     */
+    private static String[] readHeader(String json) throws IOException {
+        String[] header = new String[2];
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+            } else if ("alg".equals(name)) {
+                header[0] = reader.nextString();
+            } else if ("kid".equals(name)) {
+                header[1] = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return header;
+    }
+
+    /**
+     * Reads the id_token of a token endpoint answer
+     * @param tokenResponse The raw JSON answer
+     * @return The token or null if the answer has none
+     */
+    static String getIdToken(String tokenResponse) {
+        if (tokenResponse == null) {
+            return null;
+        }
+        try {
+            JsonReader reader = new JsonReader(new StringReader(tokenResponse));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("id_token".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to read the token response: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            logger.debug("Unable to read the token response: " + e.getMessage());
+        }
+        return null;
+    }
+}
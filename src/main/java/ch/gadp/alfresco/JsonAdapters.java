@@ -0,0 +1,346 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Shared Gson instance with hand written streaming adapters for the JSON documents read by the filter.
+ * Gson instances are thread safe so a single one is used for all requests.
+ * The adapters only read: the filter never writes these documents, the bodies it sends are built by JsonRequestEntity.
+ */
+final class JsonAdapters {
+
+    static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(GoogleProfileInfo.class, new GoogleProfileInfoAdapter())
+            .registerTypeAdapter(TicketInfo.class, new TicketInfoAdapter())
+            .registerTypeAdapter(PersonInfo.class, new PersonInfoAdapter())
+            .registerTypeAdapter(IdTokenClaims.class, new IdTokenClaimsAdapter())
+            .registerTypeAdapter(JsonWebKeys.class, new JsonWebKeysAdapter())
+            .create();
+
+    private JsonAdapters() {
+    }
+
+    /**
+     * Reads a JSON document directly from a response stream
+     * @param in The UTF-8 encoded stream
+     * @param type The type to read
+     * @return The object or null if the stream is empty
+     * @throws IOException
+     */
+    static <T> T read(InputStream in, Class<T> type) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        return GSON.fromJson(new InputStreamReader(in, "UTF-8"), type);
+    }
+
+    private static UnsupportedOperationException readOnly(Class<?> type) {
+        return new UnsupportedOperationException(type.getSimpleName() + " is read only");
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static long nextLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextLong();
+    }
+
+    private static boolean nextBoolean(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+        if (token == JsonToken.STRING) {
+            return Boolean.parseBoolean(reader.nextString());
+        }
+        return reader.nextBoolean();
+    }
+
+    /**
+     * Reads the Google userinfo document
+     */
+    static final class GoogleProfileInfoAdapter extends TypeAdapter<GoogleProfileInfo> {
+
+        @Override
+        public GoogleProfileInfo read(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+
+            GoogleProfileInfo info = new GoogleProfileInfo();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("id".equals(name)) {
+                    info.setId(nextString(reader));
+                } else if ("email".equals(name)) {
+                    info.setEmail(nextString(reader));
+                } else if ("verified_email".equals(name)) {
+                    info.setVerified_email(nextBoolean(reader));
+                } else if ("name".equals(name)) {
+                    info.setName(nextString(reader));
+                } else if ("given_name".equals(name)) {
+                    info.setGiven_name(nextString(reader));
+                } else if ("family_name".equals(name)) {
+                    info.setFamily_name(nextString(reader));
+                } else if ("picture".equals(name)) {
+                    info.setPicture(nextString(reader));
+                } else if ("gender".equals(name)) {
+                    info.setGender(nextString(reader));
+                } else if ("locale".equals(name)) {
+                    info.setLocale(nextString(reader));
+                } else if ("hd".equals(name)) {
+                    info.setHd(nextString(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return info;
+        }
+
+        @Override
+        public void write(JsonWriter writer, GoogleProfileInfo info) {
+            throw readOnly(GoogleProfileInfo.class);
+        }
+    }
+
+    /**
+     * Reads the answer of the Alfresco login API, { "data" : { "ticket" : "..." } }
+     */
+    static final class TicketInfoAdapter extends TypeAdapter<TicketInfo> {
+
+        @Override
+        public TicketInfo read(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+
+            TicketInfo info = new TicketInfo();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("data".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    info.data = info.new Data();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("ticket".equals(reader.nextName())) {
+                            info.data.ticket = nextString(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return info;
+        }
+
+        @Override
+        public void write(JsonWriter writer, TicketInfo info) {
+            throw readOnly(TicketInfo.class);
+        }
+    }
+
+    /**
+     * Reads the person document returned by the Alfresco people API
+     */
+    static final class PersonInfoAdapter extends TypeAdapter<PersonInfo> {
+
+        @Override
+        public PersonInfo read(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+
+            PersonInfo info = new PersonInfo();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("userName".equals(name)) {
+                    info.setUserName(nextString(reader));
+                } else if ("firstName".equals(name)) {
+                    info.setFirstName(nextString(reader));
+                } else if ("lastName".equals(name)) {
+                    info.setLastName(nextString(reader));
+                } else if ("email".equals(name)) {
+                    info.setEmail(nextString(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return info;
+        }
+
+        @Override
+        public void write(JsonWriter writer, PersonInfo info) {
+            throw readOnly(PersonInfo.class);
+        }
+    }
+
+    /**
+     * Reads the claims of an OpenID Connect id_token. The audience may be a single value or an array
+     */
+    static final class IdTokenClaimsAdapter extends TypeAdapter<IdTokenClaims> {
+
+        @Override
+        public IdTokenClaims read(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+
+            IdTokenClaims claims = new IdTokenClaims();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("iss".equals(name)) {
+                    claims.issuer = nextString(reader);
+                } else if ("aud".equals(name)) {
+                    if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            claims.audience.add(nextString(reader));
+                        }
+                        reader.endArray();
+                    } else {
+                        claims.audience.add(nextString(reader));
+                    }
+                } else if ("exp".equals(name)) {
+                    claims.expiresAt = nextLong(reader);
+                } else if ("iat".equals(name)) {
+                    claims.issuedAt = nextLong(reader);
+                } else if ("sub".equals(name)) {
+                    claims.subject = nextString(reader);
+                } else if ("email".equals(name)) {
+                    claims.email = nextString(reader);
+                } else if ("email_verified".equals(name)) {
+                    claims.emailVerified = nextBoolean(reader);
+                } else if ("name".equals(name)) {
+                    claims.name = nextString(reader);
+                } else if ("given_name".equals(name)) {
+                    claims.givenName = nextString(reader);
+                } else if ("family_name".equals(name)) {
+                    claims.familyName = nextString(reader);
+                } else if ("picture".equals(name)) {
+                    claims.picture = nextString(reader);
+                } else if ("locale".equals(name)) {
+                    claims.locale = nextString(reader);
+                } else if ("hd".equals(name)) {
+                    claims.hostedDomain = nextString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return claims;
+        }
+
+        @Override
+        public void write(JsonWriter writer, IdTokenClaims claims) {
+            throw readOnly(IdTokenClaims.class);
+        }
+    }
+
+    /**
+     * Reads a JSON Web Key Set, { "keys" : [ { "kid" : "...", "kty" : "RSA", "n" : "...", "e" : "..." } ] }
+     */
+    static final class JsonWebKeysAdapter extends TypeAdapter<JsonWebKeys> {
+
+        @Override
+        public JsonWebKeys read(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+
+            JsonWebKeys keys = new JsonWebKeys();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("keys".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        keys.keys.add(readKey(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return keys;
+        }
+
+        private static JsonWebKeys.Key readKey(JsonReader reader) throws IOException {
+            JsonWebKeys.Key key = new JsonWebKeys.Key();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("kid".equals(name)) {
+                    key.kid = nextString(reader);
+                } else if ("kty".equals(name)) {
+                    key.kty = nextString(reader);
+                } else if ("alg".equals(name)) {
+                    key.alg = nextString(reader);
+                } else if ("use".equals(name)) {
+                    key.use = nextString(reader);
+                } else if ("n".equals(name)) {
+                    key.n = nextString(reader);
+                } else if ("e".equals(name)) {
+                    key.e = nextString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return key;
+        }
+
+        @Override
+        public void write(JsonWriter writer, JsonWebKeys keys) {
+            throw readOnly(JsonWebKeys.class);
+        }
+    }
+}
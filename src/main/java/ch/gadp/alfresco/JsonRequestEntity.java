@@ -0,0 +1,195 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Request entity holding a flat JSON object of string properties.
+ * Properties are escaped and encoded in UTF-8 straight into the entity buffer, without intermediate strings.
+ */
+public class JsonRequestEntity implements RequestEntity {
+
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private byte[] buffer;
+    private int count;
+    private boolean firstProperty = true;
+    private boolean closed;
+
+    public JsonRequestEntity() {
+        this.buffer = new byte[256];
+        this.buffer[this.count++] = '{';
+    }
+
+    /**
+     * Adds a string property. Null values are written as JSON null
+     * @param name The property name
+     * @param value The property value
+     * @return This entity
+     */
+    public JsonRequestEntity property(String name, String value) {
+        if (closed) {
+            throw new IllegalStateException("The JSON object is already closed");
+        }
+        if (!firstProperty) {
+            writeByte(',');
+        }
+        firstProperty = false;
+
+        writeString(name);
+        writeByte(':');
+        if (value == null) {
+            writeByte('n');
+            writeByte('u');
+            writeByte('l');
+            writeByte('l');
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * @return true if no property has been added
+     */
+    public boolean isEmpty() {
+        return firstProperty;
+    }
+
+    private void close() {
+        if (!closed) {
+            writeByte('}');
+            closed = true;
+        }
+    }
+
+    private void writeString(String value) {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writeEscape('"');
+                    break;
+                case '\\':
+                    writeEscape('\\');
+                    break;
+                case '\b':
+                    writeEscape('b');
+                    break;
+                case '\f':
+                    writeEscape('f');
+                    break;
+                case '\n':
+                    writeEscape('n');
+                    break;
+                case '\r':
+                    writeEscape('r');
+                    break;
+                case '\t':
+                    writeEscape('t');
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        // Control characters and the JavaScript line separators
+                        writeUnicodeEscape(c);
+                    } else if (c < 0x80) {
+                        writeByte(c);
+                    } else if (c < 0x800) {
+                        writeByte(0xc0 | (c >> 6));
+                        writeByte(0x80 | (c & 0x3f));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        writeByte(0xf0 | (codePoint >> 18));
+                        writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                        writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                        writeByte(0x80 | (codePoint & 0x3f));
+                    } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                        // Unpaired surrogates cannot be encoded in UTF-8
+                        writeByte('?');
+                    } else {
+                        writeByte(0xe0 | (c >> 12));
+                        writeByte(0x80 | ((c >> 6) & 0x3f));
+                        writeByte(0x80 | (c & 0x3f));
+                    }
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscape(char c) {
+        writeByte('\\');
+        writeByte(c);
+    }
+
+    private void writeUnicodeEscape(char c) {
+        writeByte('\\');
+        writeByte('u');
+        writeByte(HEX_DIGITS[(c >> 12) & 0x0f]);
+        writeByte(HEX_DIGITS[(c >> 8) & 0x0f]);
+        writeByte(HEX_DIGITS[(c >> 4) & 0x0f]);
+        writeByte(HEX_DIGITS[c & 0x0f]);
+    }
+
+    private void writeByte(int b) {
+        if (count == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * @return The UTF-8 encoded JSON object
+     */
+    public byte[] toByteArray() {
+        close();
+        return Arrays.copyOf(buffer, count);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        close();
+        out.write(buffer, 0, count);
+    }
+
+    @Override
+    public long getContentLength() {
+        close();
+        return count;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JSON Web Key Set, as published by the OpenID provider to verify its id_tokens
+ */
+class JsonWebKeys {
+    List<Key> keys = new ArrayList<Key>();
+
+    /**
+     * A key of the set. Only the RSA members are read
+     */
+    static class Key {
+        String kid;
+        String kty;
+        String alg;
+        String use;
+        String n;
+        String e;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the parsed public keys of the OpenID provider, by key id, so that logins never wait for the key set.
+ * The key set is refreshed in the background shortly before its Cache-Control max-age expires. A token signed
+ * with an unknown key, as happens when the provider rotates its keys, loads the key set again at most once
+ * per refetch interval. When the provider cannot be reached, the last key set keeps being served.
+ */
+public class JwksKeyCache implements IdTokenVerifier.KeyResolver {
+
+    private static final Log logger = LogFactory.getLog(JwksKeyCache.class);
+
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)");
+
+    /**
+     * Fetches the JSON Web Key Set from the provider
+     */
+    public interface KeySetLoader {
+        /**
+         * @return The key set or null if the provider did not return it
+         * @throws IOException
+         */
+        KeySetResponse loadKeySet() throws IOException;
+    }
+
+    /**
+     * A key set as returned by the provider
+     */
+    public static final class KeySetResponse {
+        private final String json;
+        private final String cacheControl;
+
+        /**
+         * @param json The JSON Web Key Set
+         * @param cacheControl The Cache-Control header of the answer, may be null
+         */
+        public KeySetResponse(String json, String cacheControl) {
+            this.json = json;
+            this.cacheControl = cacheControl;
+        }
+    }
+
+    private final KeySetLoader loader;
+    private final long defaultMaxAgeMillis;
+    private final long refetchIntervalMillis;
+    private final Object refreshLock = new Object();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+    private volatile long expiresAt;
+    // Guarded by refreshLock
+    private long lastUnknownKeyLoad;
+
+    /**
+     * @param loader The loader used to fetch the key set
+     * @param defaultMaxAgeMillis How long a key set is used when the provider does not tell
+     * @param refetchIntervalMillis The minimum delay between two loads of the key set, also the retry delay after a failure
+     */
+    public JwksKeyCache(KeySetLoader loader, long defaultMaxAgeMillis, long refetchIntervalMillis) {
+        this.loader = loader;
+        this.defaultMaxAgeMillis = defaultMaxAgeMillis;
+        this.refetchIntervalMillis = refetchIntervalMillis;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "OAuthSSO-jwks-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Loads the key set in the background, so that the first login does not wait for it
+     */
+    public void start() {
+        this.scheduleRefresh(0);
+    }
+
+    /**
+     * Stops the background refresh
+     */
+    public void shutdown() {
+        this.scheduler.shutdownNow();
+    }
+
+    @Override
+    public PublicKey getKey(String keyId) throws IOException {
+        PublicKey key = this.keys.get(keyId);
+        if (key != null) {
+            if (System.currentTimeMillis() >= this.expiresAt) {
+                // The background refresh is late or failed, keep serving the stale key meanwhile
+                this.scheduleRefresh(0);
+            }
+            return key;
+        }
+
+        synchronized (this.refreshLock) {
+            // Another thread may have loaded the keys while we were waiting
+            key = this.keys.get(keyId);
+            if (key != null) {
+                return key;
+            }
+            long now = System.currentTimeMillis();
+            if (now - this.lastUnknownKeyLoad < this.refetchIntervalMillis) {
+                logger.debug("Unknown OpenID provider key " + keyId + ", the key set was loaded too recently to load it again");
+                return null;
+            }
+            this.lastUnknownKeyLoad = now;
+            this.refresh();
+            return this.keys.get(keyId);
+        }
+    }
+
+    /**
+     * @return The number of keys currently held
+     */
+    public int size() {
+        return this.keys.size();
+    }
+
+    /**
+     * Loads the key set, keeping the current one if the provider fails, and schedules the next refresh
+     * @throws IOException If the key set could not be loaded
+     */
+    private void refresh() throws IOException {
+        long delay = this.refetchIntervalMillis;
+        try {
+            synchronized (this.refreshLock) {
+                long start = System.currentTimeMillis();
+                KeySetResponse response = this.loader.loadKeySet();
+                Map<String, PublicKey> loaded = response == null || response.json == null ? null : parse(response.json);
+                if (loaded == null || loaded.isEmpty()) {
+                    logger.warn("No OpenID provider key loaded, keeping the " + this.keys.size() + " current ones");
+                    return;
+                }
+                long maxAge = getMaxAge(response.cacheControl, this.defaultMaxAgeMillis);
+                this.keys = Collections.unmodifiableMap(loaded);
+                this.expiresAt = start + maxAge;
+                // Refresh ahead of the expiry so that logins never see an expired key set
+                delay = Math.max(this.refetchIntervalMillis, maxAge - maxAge / 10);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to load the OpenID provider keys, keeping the " + this.keys.size() + " current ones: " + e.getMessage());
+            throw e;
+        } catch (RuntimeException e) {
+            logger.warn("Unable to load the OpenID provider keys, keeping the " + this.keys.size() + " current ones: " + e.getMessage());
+            throw e;
+        } finally {
+            this.scheduleRefresh(delay);
+        }
+    }
+
+    /**
+     * Schedules a background refresh unless one is already pending
+     */
+    private void scheduleRefresh(long delayMillis) {
+        if (!this.refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    refreshScheduled.set(false);
+                    try {
+                        refresh();
+                    } catch (IOException e) {
+                        // Logged by refresh, retried after the refetch interval
+                    } catch (RuntimeException e) {
+                        // Logged by refresh, retried after the refetch interval
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            this.refreshScheduled.set(false);
+        }
+    }
+
+    /**
+     * @param cacheControl The Cache-Control header, may be null
+     * @param defaultMillis The value to use when the header has no max-age
+     * @return The max-age in milliseconds
+     */
+    static long getMaxAge(String cacheControl, long defaultMillis) {
+        if (cacheControl == null) {
+            return defaultMillis;
+        }
+        Matcher matcher = MAX_AGE.matcher(cacheControl);
+        if (!matcher.find()) {
+            return defaultMillis;
+        }
+        try {
+            return Long.parseLong(matcher.group(1)) * 1000L;
+        } catch (NumberFormatException e) {
+            return defaultMillis;
+        }
+    }
+
+    /**
+     * Reads the RSA keys of a key set. Keys of other types or not meant for signatures are ignored
+     * @param json The JSON Web Key Set
+     * @return The keys by key id
+     */
+    static Map<String, PublicKey> parse(String json) {
+        JsonWebKeys keySet;
+        try {
+            keySet = JsonAdapters.GSON.fromJson(json, JsonWebKeys.class);
+        } catch (JsonParseException e) {
+            logger.warn("Unable to read the OpenID provider keys: " + e.getMessage());
+            return Collections.emptyMap();
+        }
+
+        Map<String, PublicKey> keys = new HashMap<String, PublicKey>();
+        if (keySet == null) {
+            return keys;
+        }
+        for (JsonWebKeys.Key key : keySet.keys) {
+            if (!"RSA".equals(key.kty) || key.n == null || key.e == null || (key.use != null && !"sig".equals(key.use))) {
+                continue;
+            }
+            try {
+                RSAPublicKeySpec spec = new RSAPublicKeySpec(new BigInteger(1, Base64Url.decode(key.n)),
+                        new BigInteger(1, Base64Url.decode(key.e)));
+                keys.put(key.kid, KeyFactory.getInstance("RSA").generatePublic(spec));
+            } catch (GeneralSecurityException e) {
+                logger.warn("Ignoring the OpenID provider key " + key.kid + ": " + e.getMessage());
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+/**
+ * Receives the stage events of the logins tracked by LoginEvents.
+ * The Flight Recorder implementation, JfrLoginEvents, is compiled from src/jfr/java by the jfr profile only, so the
+ * rest of the module builds and runs on JDKs without the jdk.jfr API.
+ */
+abstract class LoginEventSink {
+
+    /**
+     * @return true if the stage events are recorded
+     */
+    abstract boolean isEnabled();
+
+    /**
+     * Starts a stage
+     * @return The started event
+     */
+    abstract Object begin();
+
+    /**
+     * Ends a stage and records it if the recording asks for it
+     * @param started The value returned by begin
+     * @param stage The stage label
+     * @param httpStatus The status of the last backend answer, 0 if none
+     * @param userHash The hash of the user name
+     * @param loginId The identifier shared by the events of the login
+     */
+    abstract void commit(Object started, String stage, int httpStatus, String userHash, long loginId);
+}
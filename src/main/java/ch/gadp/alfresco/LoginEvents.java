@@ -0,0 +1,143 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Emits a Flight Recorder event for each stage of a login, so that a slow login can be put side by side
+ * with the GC pauses and lock contention of the same recording.
+ * The events of a login share an identifier and the hash of the user name, kept for the current thread.
+ * When Flight Recorder is missing, the module was built without the jfr profile or the event is disabled
+ * (the default), nothing is tracked and each call is a field read and a thread local lookup.
+ */
+final class LoginEvents {
+
+    private static Log logger = LogFactory.getLog(LoginEvents.class);
+
+    private static final String JFR_SINK = "ch.gadp.alfresco.JfrLoginEvents";
+
+    private static final LoginEventSink SINK = loadFlightRecorderSink();
+    private static final boolean AVAILABLE = SINK != null;
+    private static final AtomicLong LOGIN_IDS = new AtomicLong();
+    private static final ThreadLocal<Login> CURRENT = new ThreadLocal<Login>();
+
+    private LoginEvents() {
+    }
+
+    /**
+     * The login handled by the current thread
+     */
+    private static final class Login {
+        final long id = LOGIN_IDS.incrementAndGet();
+        String userHash;
+        int httpStatus;
+    }
+
+    private static LoginEventSink loadFlightRecorderSink() {
+        ClassLoader loader = LoginEvents.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, loader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            logger.debug("Flight Recorder events disabled: " + e.getMessage());
+            return null;
+        }
+
+        try {
+            return (LoginEventSink) Class.forName(JFR_SINK, true, loader).newInstance();
+        } catch (ClassNotFoundException e) {
+            logger.debug("Flight Recorder events disabled: built without the jfr profile");
+        } catch (InstantiationException e) {
+            logger.debug("Flight Recorder events disabled: " + e.getMessage());
+        } catch (IllegalAccessException e) {
+            logger.debug("Flight Recorder events disabled: " + e.getMessage());
+        } catch (LinkageError e) {
+            logger.debug("Flight Recorder events disabled: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Starts tracking a login on the current thread if the events are enabled
+     */
+    static void beginLogin() {
+        if (AVAILABLE && SINK.isEnabled()) {
+            CURRENT.set(new Login());
+        }
+    }
+
+    /**
+     * Stops tracking the login of the current thread
+     */
+    static void endLogin() {
+        if (AVAILABLE) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * @param username The user name of the current login, only its hash is recorded
+     */
+    static void user(String username) {
+        Login login = current();
+        if (login != null) {
+            login.userHash = Digests.sha256Hex(username).substring(0, 16);
+        }
+    }
+
+    /**
+     * @param httpStatus The status of the last backend answer of the current login
+     */
+    static void httpStatus(int httpStatus) {
+        Login login = current();
+        if (login != null) {
+            login.httpStatus = httpStatus;
+        }
+    }
+
+    /**
+     * Starts a stage
+     * @return The started event or null if the current login is not tracked
+     */
+    static Object begin() {
+        return current() == null ? null : SINK.begin();
+    }
+
+    /**
+     * Ends a stage and commits its event
+     * @param event The value returned by begin
+     * @param stage The stage
+     */
+    static void end(Object event, LoginMetrics.Stage stage) {
+        Login login = current();
+        if (event == null || login == null) {
+            return;
+        }
+        SINK.commit(event, stage.getLabel(), login.httpStatus, login.userHash, login.id);
+        login.httpStatus = 0;
+    }
+
+    private static Login current() {
+        return AVAILABLE ? CURRENT.get() : null;
+    }
+}
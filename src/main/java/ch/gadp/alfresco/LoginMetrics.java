@@ -0,0 +1,161 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome counters and per stage latencies of the OAuth logins.
+ * Recording is lock free and cheap enough to stay enabled: striped counters and log-linear histograms.
+ */
+public class LoginMetrics implements LoginMetricsMXBean {
+
+    /**
+     * The timed steps of a login
+     */
+    public enum Stage {
+        /** The whole OAuth callback, from the code to the provisioned user */
+        CALLBACK("callback"),
+        /** Exchange of the authorization code for an access token */
+        TOKEN_EXCHANGE("tokenExchange"),
+        /** Fetch of the user profile from the provider */
+        USERINFO("userinfo"),
+        /** Verification of the OpenID Connect id_token, including the loading of the provider keys */
+        ID_TOKEN("idToken"),
+        /** Admin ticket, including the cache lookup */
+        ADMIN_TICKET("adminTicket"),
+        /** Lookup of the user in the repository */
+        USER_EXISTS("userExists"),
+        /** Creation or update of the user in the repository */
+        SAVE_USER("saveUser"),
+        /** Login of the user in Share */
+        SHARE_AUTHENTICATE("shareAuthenticate");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * How a filtered request ended
+     */
+    public enum Outcome {
+        REDIRECT, SUCCESS, DOMAIN_REJECTED, REJECTED, BACKEND_ERROR, UNAVAILABLE
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+    private final StripedCounter[] outcomes = new StripedCounter[Outcome.values().length];
+
+    public LoginMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new StripedCounter();
+        }
+    }
+
+    /**
+     * Records the duration of a stage
+     * @param stage The stage
+     * @param startNanos The System.nanoTime() value taken when the stage started
+     */
+    public void record(Stage stage, long startNanos) {
+        latencies[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts an outcome
+     * @param outcome The outcome
+     */
+    public void count(Outcome outcome) {
+        outcomes[outcome.ordinal()].increment();
+    }
+
+    /**
+     * @param outcome The outcome
+     * @return The number of requests which ended with the outcome
+     */
+    public long getCount(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    /**
+     * @param stage The stage
+     * @return The latency statistics of the stage
+     */
+    public LatencySnapshot getLatency(Stage stage) {
+        return latencies[stage.ordinal()].snapshot();
+    }
+
+    @Override
+    public long getRedirects() {
+        return getCount(Outcome.REDIRECT);
+    }
+
+    @Override
+    public long getSuccesses() {
+        return getCount(Outcome.SUCCESS);
+    }
+
+    @Override
+    public long getDomainRejections() {
+        return getCount(Outcome.DOMAIN_REJECTED);
+    }
+
+    @Override
+    public long getRejections() {
+        return getCount(Outcome.REJECTED);
+    }
+
+    @Override
+    public long getBackendErrors() {
+        return getCount(Outcome.BACKEND_ERROR);
+    }
+
+    @Override
+    public long getUnavailable() {
+        return getCount(Outcome.UNAVAILABLE);
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getStageLatencies() {
+        Map<String, LatencySnapshot> snapshots = new LinkedHashMap<String, LatencySnapshot>();
+        for (Stage stage : Stage.values()) {
+            snapshots.put(stage.getLabel(), getLatency(stage));
+        }
+        return snapshots;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        for (StripedCounter counter : outcomes) {
+            counter.reset();
+        }
+    }
+}
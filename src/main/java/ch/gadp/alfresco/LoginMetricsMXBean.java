@@ -0,0 +1,66 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.util.Map;
+
+/**
+ * JMX view of the OAuth login metrics
+ */
+public interface LoginMetricsMXBean {
+
+    /**
+     * @return The number of unauthenticated users redirected to the provider
+     */
+    long getRedirects();
+
+    /**
+     * @return The number of users logged in Share after an OAuth callback
+     */
+    long getSuccesses();
+
+    /**
+     * @return The number of users whose email domain is not allowed
+     */
+    long getDomainRejections();
+
+    /**
+     * @return The number of callbacks refused by the provider or by Share
+     */
+    long getRejections();
+
+    /**
+     * @return The number of callbacks which failed on a provider or repository error
+     */
+    long getBackendErrors();
+
+    /**
+     * @return The number of callbacks answered 503 because of an open circuit breaker or too many concurrent logins
+     */
+    long getUnavailable();
+
+    /**
+     * @return The latency statistics of each login stage, by stage name
+     */
+    Map<String, LatencySnapshot> getStageLatencies();
+
+    /**
+     * Clears all the counters and latencies
+     */
+    void reset();
+}
@@ -0,0 +1,662 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.scribe.builder.api.Api;
+import org.scribe.builder.api.DefaultApi20;
+import org.scribe.extractors.AccessTokenExtractor;
+import org.scribe.extractors.JsonTokenExtractor;
+import org.scribe.model.Verb;
+import org.springframework.extensions.config.Config;
+import org.springframework.extensions.config.ConfigElement;
+import org.springframework.extensions.config.ConfigService;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the OAuthFilter section of share-config-custom.xml.
+ * All values are read once when the snapshot is built so that requests only read plain fields.
+ */
+public final class OAuthFilterConfiguration {
+
+    private static Log logger = LogFactory.getLog(OAuthFilterConfiguration.class);
+
+    static final String CONFIG_CONDITION = "OAuthFilter";
+
+    static final String REPOSITORY_PROTOCOL = "repository.protocol";
+    static final String REPOSITORY_HOST = "repository.host";
+    static final String REPOSITORY_PORT = "repository.port";
+    static final String REPOSITORY_API = "repository.api";
+    static final String REPOSITORY_ADMIN_USER = "repository.admin";
+    static final String REPOSITORY_ADMIN_PASSWORD = "repository.password";
+
+    static final String REPOSITORY_MAX_CONNECTIONS_PER_HOST = "repository.max-connections-per-host";
+    static final String REPOSITORY_MAX_CONNECTIONS = "repository.max-connections";
+    static final String REPOSITORY_CONNECTION_TIMEOUT = "repository.connection-timeout";
+    static final String REPOSITORY_SOCKET_TIMEOUT = "repository.socket-timeout";
+    static final String REPOSITORY_IDLE_CONNECTION_TIMEOUT = "repository.idle-connection-timeout";
+
+    static final String REPOSITORY_ADMIN_TICKET_TTL = "repository.admin-ticket-ttl";
+
+    static final String REPOSITORY_USER_CACHE_SIZE = "repository.user-cache-size";
+    static final String REPOSITORY_USER_CACHE_MAX_AGE = "repository.user-cache-max-age";
+
+    static final String REPOSITORY_PROVISIONING = "repository.provisioning";
+
+    static final String PROVISIONING_CHECK_THEN_SAVE = "check-then-save";
+    static final String PROVISIONING_UPSERT = "upsert";
+
+    static final String REPOSITORY_ASYNC_UPDATE_THREADS = "repository.async-update-threads";
+    static final String REPOSITORY_ASYNC_UPDATE_QUEUE = "repository.async-update-queue";
+    static final String REPOSITORY_PROVISIONING_WAIT_TIMEOUT = "repository.provisioning-wait-timeout";
+
+    static final String REPOSITORY_CIRCUIT_BREAKER_FAILURES = "repository.circuit-breaker-failures";
+    static final String REPOSITORY_CIRCUIT_BREAKER_OPEN_TIME = "repository.circuit-breaker-open-time";
+
+    static final String USER_DOMAIN = "repository.user-domains";
+    static final String REQUIRE_HOSTED_DOMAIN = "repository.require-hosted-domain";
+    static final String USER_PASSWORD = "repository.user-password";
+
+    static final String API_KEY = "oauth-api.key";
+    static final String API_URI = "oauth-api.uri";
+    static final String API_TOKEN_URI = "oauth-api.token-uri";
+    static final String API_SECRET = "oauth-api.secret";
+    static final String API_SCOPE = "oauth-api.scope";
+    static final String API_NAME = "oauth-api.name";
+    static final String API_PROMPT = "oauth-api.prompt";
+    static final String API_SERVICE_CACHE_SIZE = "oauth-api.service-cache-size";
+    static final String API_CALLBACK_CACHE_SIZE = "oauth-api.callback-cache-size";
+    static final String API_CALLBACK_CACHE_MAX_AGE = "oauth-api.callback-cache-max-age";
+    static final String API_CONNECT_TIMEOUT = "oauth-api.connect-timeout";
+    static final String API_READ_TIMEOUT = "oauth-api.read-timeout";
+    static final String API_CIRCUIT_BREAKER_FAILURES = "oauth-api.circuit-breaker-failures";
+    static final String API_CIRCUIT_BREAKER_OPEN_TIME = "oauth-api.circuit-breaker-open-time";
+    static final String API_OPENID = "oauth-api.openid";
+    static final String API_JWKS_URI = "oauth-api.jwks-uri";
+    static final String API_JWKS_REFETCH_INTERVAL = "oauth-api.jwks-refetch-interval";
+    static final String API_ISSUERS = "oauth-api.issuers";
+    static final String API_CLOCK_SKEW = "oauth-api.clock-skew";
+
+    static final String FILTER_EXCLUDE_PREFIXES = "filter.exclude-prefixes";
+    static final String FILTER_EXCLUDE_SUFFIXES = "filter.exclude-suffixes";
+
+    static final String FILTER_API_PREFIXES = "filter.api-prefixes";
+    static final String FILTER_CHECK_REQUESTED_WITH = "filter.check-requested-with";
+    static final String FILTER_CHECK_ACCEPT = "filter.check-accept";
+
+    static final String FILTER_MAX_CONCURRENT_LOGINS = "filter.max-concurrent-logins";
+    static final String FILTER_BUSY_RETRY_AFTER = "filter.busy-retry-after";
+
+    private static final String SCRIBE_API_PACKAGE = "org.scribe.builder.api";
+
+    private static final String REPOSITORY_API_PEOPLE = "people";
+    private static final String REPOSITORY_API_LOGIN = "login";
+
+    private final Map<String, String> values;
+
+    private final String peopleUri;
+    private final String loginUri;
+    private final String adminUser;
+    private final String adminPassword;
+    private final String userPassword;
+    private final String userDomains;
+    private final boolean hostedDomainRequired;
+    private final DomainMatcher domainMatcher;
+
+    private final int maxConnectionsPerHost;
+    private final int maxConnections;
+    private final int connectionTimeout;
+    private final int socketTimeout;
+    private final int idleConnectionTimeout;
+    private final int adminTicketTtl;
+    private final int userCacheSize;
+    private final int userCacheMaxAge;
+    private final boolean upsertProvisioning;
+    private final int asyncUpdateThreads;
+    private final int asyncUpdateQueue;
+    private final int provisioningWaitTimeout;
+    private final int repositoryBreakerFailures;
+    private final int repositoryBreakerOpenTime;
+
+    private final String apiKey;
+    private final String apiUri;
+    private final String apiTokenUri;
+    private final Verb apiTokenVerb;
+    private final AccessTokenExtractor apiTokenExtractor;
+    private final String apiSecret;
+    private final String apiScope;
+    private final String apiPrompt;
+    private final Class<? extends Api> apiClass;
+    private final int serviceCacheSize;
+    private final int callbackCacheSize;
+    private final int callbackCacheMaxAge;
+    private final int apiConnectTimeout;
+    private final int apiReadTimeout;
+    private final int apiBreakerFailures;
+    private final int apiBreakerOpenTime;
+    private final boolean openId;
+    private final String jwksUri;
+    private final int jwksRefetchInterval;
+    private final List<String> idTokenIssuers;
+    private final int clockSkew;
+
+    private final PathExclusionMatcher excludedPaths;
+    private final RequestClassifier requestClassifier;
+    private final int maxConcurrentLogins;
+    private final int busyRetryAfter;
+
+    /**
+     * Builds the configuration from flat "section.name" keys, e.g. "repository.host"
+     * @param values The configuration values
+     */
+    OAuthFilterConfiguration(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(new HashMap<String, String>(values));
+
+        String repositoryUri = get(REPOSITORY_PROTOCOL) +
+                "://" +
+                get(REPOSITORY_HOST) +
+                ":" +
+                get(REPOSITORY_PORT) +
+                get(REPOSITORY_API) +
+                "/";
+        this.peopleUri = repositoryUri + REPOSITORY_API_PEOPLE;
+        this.loginUri = repositoryUri + REPOSITORY_API_LOGIN;
+        this.adminUser = get(REPOSITORY_ADMIN_USER);
+        this.adminPassword = get(REPOSITORY_ADMIN_PASSWORD);
+        this.userPassword = get(USER_PASSWORD);
+        this.userDomains = get(USER_DOMAIN);
+        this.domainMatcher = new DomainMatcher(this.userDomains);
+        this.hostedDomainRequired = getBoolean(REQUIRE_HOSTED_DOMAIN, false);
+
+        this.maxConnectionsPerHost = getInt(REPOSITORY_MAX_CONNECTIONS_PER_HOST, 20);
+        this.maxConnections = getInt(REPOSITORY_MAX_CONNECTIONS, 50);
+        this.connectionTimeout = getInt(REPOSITORY_CONNECTION_TIMEOUT, 5000);
+        this.socketTimeout = getInt(REPOSITORY_SOCKET_TIMEOUT, 30000);
+        this.idleConnectionTimeout = getInt(REPOSITORY_IDLE_CONNECTION_TIMEOUT, 60000);
+        this.adminTicketTtl = getInt(REPOSITORY_ADMIN_TICKET_TTL, 1800);
+        this.userCacheSize = getInt(REPOSITORY_USER_CACHE_SIZE, 1000);
+        this.userCacheMaxAge = getInt(REPOSITORY_USER_CACHE_MAX_AGE, 3600);
+
+        String provisioning = StringUtils.defaultIfBlank(get(REPOSITORY_PROVISIONING), PROVISIONING_CHECK_THEN_SAVE).trim();
+        if (!PROVISIONING_CHECK_THEN_SAVE.equals(provisioning) && !PROVISIONING_UPSERT.equals(provisioning)) {
+            throw new IllegalStateException("Invalid value for " + REPOSITORY_PROVISIONING + ": " + provisioning);
+        }
+        this.upsertProvisioning = PROVISIONING_UPSERT.equals(provisioning);
+        this.asyncUpdateThreads = getInt(REPOSITORY_ASYNC_UPDATE_THREADS, 0);
+        this.asyncUpdateQueue = getInt(REPOSITORY_ASYNC_UPDATE_QUEUE, 100);
+        this.provisioningWaitTimeout = getInt(REPOSITORY_PROVISIONING_WAIT_TIMEOUT, 30000);
+        this.repositoryBreakerFailures = getInt(REPOSITORY_CIRCUIT_BREAKER_FAILURES, 5);
+        this.repositoryBreakerOpenTime = getInt(REPOSITORY_CIRCUIT_BREAKER_OPEN_TIME, 30);
+
+        this.apiKey = get(API_KEY);
+        this.apiUri = get(API_URI);
+        String tokenUri = StringUtils.trimToNull(get(API_TOKEN_URI));
+        this.apiSecret = get(API_SECRET);
+        this.apiScope = get(API_SCOPE);
+        this.apiPrompt = get(API_PROMPT);
+        this.apiClass = getAPIClass(get(API_NAME));
+        DefaultApi20 oauth2Api = newOAuth2Api(this.apiClass);
+        if (oauth2Api != null) {
+            this.apiTokenUri = tokenUri != null ? tokenUri : oauth2Api.getAccessTokenEndpoint();
+            this.apiTokenVerb = oauth2Api.getAccessTokenVerb();
+            this.apiTokenExtractor = oauth2Api.getAccessTokenExtractor();
+        } else {
+            this.apiTokenUri = tokenUri;
+            this.apiTokenVerb = Verb.POST;
+            this.apiTokenExtractor = new JsonTokenExtractor();
+        }
+        this.serviceCacheSize = getInt(API_SERVICE_CACHE_SIZE, 256);
+        this.callbackCacheSize = getInt(API_CALLBACK_CACHE_SIZE, 1000);
+        this.callbackCacheMaxAge = getInt(API_CALLBACK_CACHE_MAX_AGE, 60);
+        this.apiConnectTimeout = getInt(API_CONNECT_TIMEOUT, 5000);
+        this.apiReadTimeout = getInt(API_READ_TIMEOUT, 10000);
+        this.apiBreakerFailures = getInt(API_CIRCUIT_BREAKER_FAILURES, 5);
+        this.apiBreakerOpenTime = getInt(API_CIRCUIT_BREAKER_OPEN_TIME, 30);
+        this.openId = getBoolean(API_OPENID, false);
+        String jwks = StringUtils.trimToNull(get(API_JWKS_URI));
+        this.jwksUri = jwks == null ? "https://www.googleapis.com/oauth2/v3/certs" : jwks;
+        this.jwksRefetchInterval = getInt(API_JWKS_REFETCH_INTERVAL, 60);
+        String issuers = StringUtils.trimToNull(get(API_ISSUERS));
+        this.idTokenIssuers = splitList(issuers == null ? "https://accounts.google.com,accounts.google.com" : issuers);
+        this.clockSkew = getInt(API_CLOCK_SKEW, 60);
+
+        this.excludedPaths = new PathExclusionMatcher(get(FILTER_EXCLUDE_PREFIXES), get(FILTER_EXCLUDE_SUFFIXES));
+        String apiPrefixes = get(FILTER_API_PREFIXES);
+        this.requestClassifier = new RequestClassifier(apiPrefixes == null ? "/proxy/,/service/" : apiPrefixes,
+                getBoolean(FILTER_CHECK_REQUESTED_WITH, true), getBoolean(FILTER_CHECK_ACCEPT, true));
+        this.maxConcurrentLogins = getInt(FILTER_MAX_CONCURRENT_LOGINS, 50);
+        this.busyRetryAfter = getInt(FILTER_BUSY_RETRY_AFTER, 5);
+    }
+
+    /**
+     * Reads the OAuthFilter configuration from the Surf configuration service
+     * @param configService The web.config service
+     * @return The configuration snapshot
+     */
+    public static OAuthFilterConfiguration load(ConfigService configService) {
+        Config oauthConfig = configService.getConfig(CONFIG_CONDITION);
+
+        if (oauthConfig == null) {
+            throw new IllegalStateException("OAuth Filter has no configuration");
+        }
+
+        Map<String, String> values = new HashMap<String, String>();
+        for (Map.Entry<String, ConfigElement> section : oauthConfig.getConfigElements().entrySet()) {
+            List<ConfigElement> children = section.getValue().getChildren();
+            if (children == null) {
+                continue;
+            }
+            for (ConfigElement child : children) {
+                values.put(section.getKey() + "." + child.getName(), child.getValue());
+            }
+        }
+
+        return new OAuthFilterConfiguration(values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Api> getAPIClass(String name) {
+        if (StringUtils.isBlank(name)) {
+            return null;
+        }
+
+        String fullName = SCRIBE_API_PACKAGE + "." + name;
+
+        try {
+            return (Class<? extends Api>) Class.forName(fullName);
+        } catch (ClassNotFoundException cnfe) {
+            logger.error("Unknown OAuth API " + fullName);
+            return null;
+        }
+    }
+
+    /**
+     * Instantiates an OAuth 2 API, so that the code exchange can go through the filter's own HTTP client
+     * and its timeouts rather than through Scribe, with the endpoint, verb and answer format of the API
+     * @param apiClass The Scribe API
+     * @return The API or null if it is not an OAuth 2 one
+     */
+    private static DefaultApi20 newOAuth2Api(Class<? extends Api> apiClass) {
+        if (apiClass == null || !DefaultApi20.class.isAssignableFrom(apiClass)) {
+            return null;
+        }
+        try {
+            return (DefaultApi20) apiClass.newInstance();
+        } catch (Exception e) {
+            logger.error("Unable to instantiate " + apiClass.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets a raw configuration value
+     * @param name The key in the "section.name" form
+     * @return The value or null if not configured
+     */
+    String get(String name) {
+        return values.get(name);
+    }
+
+    /**
+     * Gets a numeric configuration value
+     * @param name The key in the "section.name" form
+     * @param defaultValue The value to use when the key is missing or blank
+     * @return The configured value or the default one
+     */
+    int getInt(String name, int defaultValue) {
+        String value = get(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            throw new IllegalStateException("Invalid number for " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Gets a boolean configuration value
+     * @param name The key in the "section.name" form
+     * @param defaultValue The value to use when the key is missing or blank
+     * @return The configured value or the default one
+     */
+    boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Splits a comma separated value, ignoring blank items
+     * @param value The value
+     * @return The trimmed items
+     */
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<String>();
+        for (String item : StringUtils.split(value, ',')) {
+            String trimmed = StringUtils.trimToNull(item);
+            if (trimmed != null) {
+                items.add(trimmed);
+            }
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    public String getPeopleUri() {
+        return peopleUri;
+    }
+
+    /**
+     * @param userName The user name
+     * @return The people URI of the user, the user name being encoded as a single path segment
+     */
+    public String getPersonUri(String userName) {
+        try {
+            return peopleUri + "/" + URLEncoder.encode(userName, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+
+    public String getLoginUri() {
+        return loginUri;
+    }
+
+    public String getAdminUser() {
+        return adminUser;
+    }
+
+    public String getAdminPassword() {
+        return adminPassword;
+    }
+
+    public String getUserPassword() {
+        return userPassword;
+    }
+
+    public String getUserDomains() {
+        return userDomains;
+    }
+
+    /**
+     * @return The matcher of the emails allowed to log in
+     */
+    public DomainMatcher getDomainMatcher() {
+        return domainMatcher;
+    }
+
+    /**
+     * @return true if only Google Workspace accounts (with a "hd" claim) may log in
+     */
+    public boolean isHostedDomainRequired() {
+        return hostedDomainRequired;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public int getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * @return How long the admin ticket is reused, in seconds
+     */
+    public int getAdminTicketTtl() {
+        return adminTicketTtl;
+    }
+
+    /**
+     * @return The maximum number of users remembered as already provisioned
+     */
+    public int getUserCacheSize() {
+        return userCacheSize;
+    }
+
+    /**
+     * @return How long a provisioned user is remembered, in seconds
+     */
+    public int getUserCacheMaxAge() {
+        return userCacheMaxAge;
+    }
+
+    /**
+     * @return true if users are updated first and only created when the update answers 404
+     */
+    public boolean isUpsertProvisioning() {
+        return upsertProvisioning;
+    }
+
+    /**
+     * @return The number of threads updating existing users in the background. 0 updates them during the login
+     */
+    public int getAsyncUpdateThreads() {
+        return asyncUpdateThreads;
+    }
+
+    /**
+     * @return The maximum number of pending background updates
+     */
+    public int getAsyncUpdateQueue() {
+        return asyncUpdateQueue;
+    }
+
+    /**
+     * @return How long, in milliseconds, a login waits for the provisioning of the same user by a concurrent login
+     */
+    public int getProvisioningWaitTimeout() {
+        return provisioningWaitTimeout;
+    }
+
+    /**
+     * @return The consecutive repository failures which stop the calls to the repository. 0 disables it
+     */
+    public int getRepositoryBreakerFailures() {
+        return repositoryBreakerFailures;
+    }
+
+    /**
+     * @return How long, in seconds, the repository is not called after the failures
+     */
+    public int getRepositoryBreakerOpenTime() {
+        return repositoryBreakerOpenTime;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getApiUri() {
+        return apiUri;
+    }
+
+    /**
+     * @return The endpoint exchanging the authorization code for an access token, by default the one of the
+     * OAuth 2 API. Null if the exchange has to go through Scribe
+     */
+    public String getApiTokenUri() {
+        return apiTokenUri;
+    }
+
+    /**
+     * @return The HTTP verb of the token request, the one of the OAuth 2 API or POST
+     */
+    public Verb getApiTokenVerb() {
+        return apiTokenVerb;
+    }
+
+    /**
+     * @return The parser of the token endpoint answer, the one of the OAuth 2 API or a JSON one
+     */
+    public AccessTokenExtractor getApiTokenExtractor() {
+        return apiTokenExtractor;
+    }
+
+    public String getApiSecret() {
+        return apiSecret;
+    }
+
+    public String getApiScope() {
+        return apiScope;
+    }
+
+    public String getApiPrompt() {
+        return apiPrompt;
+    }
+
+    public Class<? extends Api> getApiClass() {
+        return apiClass;
+    }
+
+    /**
+     * @return The maximum number of callback URLs for which the OAuth service is kept
+     */
+    public int getServiceCacheSize() {
+        return serviceCacheSize;
+    }
+
+    /**
+     * @return The maximum number of resolved callbacks remembered for the browsers which started them. 0 disables it
+     */
+    public int getCallbackCacheSize() {
+        return callbackCacheSize;
+    }
+
+    /**
+     * @return How long a resolved callback is remembered, in seconds
+     */
+    public int getCallbackCacheMaxAge() {
+        return callbackCacheMaxAge;
+    }
+
+    /**
+     * @return The timeout in milliseconds to connect to the OAuth provider
+     */
+    public int getApiConnectTimeout() {
+        return apiConnectTimeout;
+    }
+
+    /**
+     * @return The timeout in milliseconds to wait for data from the OAuth provider
+     */
+    public int getApiReadTimeout() {
+        return apiReadTimeout;
+    }
+
+    /**
+     * @return The consecutive provider failures which stop the calls to the provider. 0 disables it
+     */
+    public int getApiBreakerFailures() {
+        return apiBreakerFailures;
+    }
+
+    /**
+     * @return How long, in seconds, the provider is not called after the failures
+     */
+    public int getApiBreakerOpenTime() {
+        return apiBreakerOpenTime;
+    }
+
+    /**
+     * @return true if the profile is read from the OpenID Connect id_token, the userinfo endpoint being the fallback
+     */
+    public boolean isOpenId() {
+        return openId;
+    }
+
+    /**
+     * @return The URI of the JSON Web Key Set verifying the id_token signatures
+     */
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+    /**
+     * @return The minimum delay, in seconds, between two loads of the key set for tokens signed with unknown keys
+     */
+    public int getJwksRefetchInterval() {
+        return jwksRefetchInterval;
+    }
+
+    /**
+     * @return The accepted issuers of the id_token
+     */
+    public List<String> getIdTokenIssuers() {
+        return idTokenIssuers;
+    }
+
+    /**
+     * @return The tolerance, in seconds, applied to the id_token expiry and issue times
+     */
+    public int getClockSkew() {
+        return clockSkew;
+    }
+
+    /**
+     * @return The matcher of the paths which bypass the filter
+     */
+    public PathExclusionMatcher getExcludedPaths() {
+        return excludedPaths;
+    }
+
+    /**
+     * @return The classifier deciding which unauthenticated requests are redirected to the provider
+     */
+    public RequestClassifier getRequestClassifier() {
+        return requestClassifier;
+    }
+
+    /**
+     * @return The maximum number of OAuth callbacks processed at the same time. 0 for no limit
+     */
+    public int getMaxConcurrentLogins() {
+        return maxConcurrentLogins;
+    }
+
+    /**
+     * @return The Retry-After, in seconds, sent with the 503 answered when too many logins are in progress
+     */
+    public int getBusyRetryAfter() {
+        return busyRetryAfter;
+    }
+}
@@ -17,31 +17,44 @@ along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
 
 package ch.gadp.alfresco;
 
-import com.google.gson.Gson;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.commons.httpclient.methods.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.validator.routines.EmailValidator;
-import org.scribe.builder.ServiceBuilder;
-import org.scribe.builder.api.Api;
 import org.scribe.model.*;
 import org.scribe.oauth.OAuthService;
 import org.springframework.context.ApplicationContext;
-import org.springframework.extensions.config.Config;
-import org.springframework.extensions.config.ConfigElement;
 import org.springframework.extensions.config.ConfigService;
 import org.springframework.extensions.surf.UserFactory;
 import org.springframework.extensions.surf.site.AuthenticationUtil;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
 import javax.servlet.*;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created with IntelliJ IDEA.
@@ -54,95 +67,71 @@ public class OAuthSSOAuthenticationFilter implements Filter {
     private static Log logger = LogFactory.getLog(OAuthSSOAuthenticationFilter.class);
 
     private static final String ATTR_OAUTH_REQUEST_TOKEN = "oauthRequestToken";
+    static final String ATTR_BYPASS_OAUTH = "share.bypassOAuth";
+    private static final String PARAM_BYPASS_OAUTH = "bypassOAuth";
+    private static final String PARAM_CODE = "code";
+    private static final String PARAM_STATE = "state";
+    private static final String METHOD_GET = "GET";
+    // Holds the nonce of the login started by the browser, the state parameter is its digest
+    static final String STATE_COOKIE = "OAuthSSO-state";
+    // How long the browser may stay on the provider pages before coming back
+    private static final int STATE_COOKIE_MAX_AGE = 600;
+    private static final SecureRandom STATE_RANDOM = new SecureRandom();
 
-    private static final String REPOSITORY_PROTOCOL = "repository.protocol";
-    private static final String REPOSITORY_HOST = "repository.host";
-    private static final String REPOSITORY_PORT = "repository.port";
-    private static final String REPOSITORY_API = "repository.api";
-    private static final String REPOSITORY_ADMIN_USER = "repository.admin";
-    private static final String REPOSITORY_ADMIN_PASSWORD = "repository.password";
-
-
-    private static final String USER_DOMAIN = "repository.user-domains";
-    private static final String USER_PASSWORD = "repository.user-password";
-
-
-    private static final String API_KEY = "oauth-api.key";
-    private static final String API_URI = "oauth-api.uri";
-    private static final String API_SECRET = "oauth-api.secret";
-    private static final String API_SCOPE = "oauth-api.scope";
-    private static final String API_NAME = "oauth-api.name";
-    private static final String API_PROMPT = "oauth-api.prompt";
-
-    private static final String SCRIBE_API_PACKAGE = "org.scribe.builder.api";
-
-    private static final String REPOSITORY_API_PEOPLE = "people";
-    private static final String REPOSITORY_API_LOGIN =  "login";
     private static final String DEFAULT_TICKET_NAME = "alf_ticket";
+    // How long no admin login is tried after the repository refused one
+    private static final long ADMIN_LOGIN_FAILURE_BACKOFF = 5000L;
+    // Used when the JSON Web Key Set answer has no Cache-Control max-age
+    private static final long DEFAULT_JWKS_MAX_AGE = 3600 * 1000L;
 
     private ServletContext servletContext;
 
+    private volatile OAuthFilterConfiguration configuration;
 
-    private String getAPIUri(String service) {
-        return getConfigurationValue(REPOSITORY_PROTOCOL) +
-                "://" +
-                getConfigurationValue(REPOSITORY_HOST) +
-                ":" +
-                getConfigurationValue(REPOSITORY_PORT) +
-                getConfigurationValue(REPOSITORY_API) +
-                "/" +
-                service;
+    private volatile OAuthServiceCache oauthServices;
 
-    }
-
-    private String getConfigurationValue(String name) {
-        ConfigService configService = (ConfigService) this.getApplicationContext().getBean("web.config");
-        Config oauthConfig = configService.getConfig("OAuthFilter");
-
-        if (oauthConfig == null) {
-            throw new IllegalStateException("OAuth Filter has no configuration");
-        }
-
-        String[] parts = StringUtils.split(name, '.');
-
-        ConfigElement mainConfig = oauthConfig.getConfigElement(parts[0]);
-        if (mainConfig == null) {
-            return null;
-        }
-
-        ConfigElement subConfig = mainConfig.getChild(parts[1]);
-        if (subConfig == null) {
-            return null;
-        }
-
-        return subConfig.getValue();
-    }
+    private MultiThreadedHttpConnectionManager connectionManager;
+    private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+    private HttpClient httpClient;
+    private MultiThreadedHttpConnectionManager providerConnectionManager;
+    private HttpClient providerHttpClient;
+    private CircuitBreaker repositoryBreaker;
+    private CircuitBreaker providerBreaker;
+    // Null unless the profile is read from the OpenID Connect id_token
+    private IdTokenVerifier idTokenVerifier;
+    private JwksKeyCache providerKeys;
+    // Null when the number of concurrent logins is not limited
+    private Semaphore loginPermits;
 
+    private AdminTicketCache adminTicketCache;
 
+    /**
+     * Digest of the profile last pushed to the repository, by user name
+     */
+    private ExpiringLruCache<String, String> provisionedUsers;
+    private SingleFlight<String, String> provisioningFlights;
+    // Both keyed by a digest of the authorization code and the state nonce of the browser
+    private SingleFlight<String, String> callbackFlights;
+    private ExpiringLruCache<String, String> resolvedCallbacks;
 
-    private Class<Api> getAPIClass(String name) {
+    /**
+     * Runs the profile updates of existing users after the login, null when disabled
+     */
+    private ThreadPoolExecutor profileUpdateExecutor;
 
-        String fullName = SCRIBE_API_PACKAGE + "." + name;
+    private final LoginMetrics metrics = new LoginMetrics();
+    private ObjectName metricsName;
 
-        try {
-            return (Class<Api>) Class.forName(fullName);
-        } catch (ClassNotFoundException cnfe) {
-            return null;
-        }
-    }
 
     private OAuthService getOAuthService(String callbackURL) {
-        ServiceBuilder sb = new ServiceBuilder()
-                .provider(this.getAPIClass(getConfigurationValue(API_NAME)))
-                .apiKey(getConfigurationValue(API_KEY))
-                .apiSecret(getConfigurationValue(API_SECRET))
-                .scope(getConfigurationValue(API_SCOPE))
-                .approvalPrompt(getConfigurationValue(API_PROMPT));
-        if (StringUtils.isNotEmpty(callbackURL)) {
-            sb.callback(callbackURL);
+        OAuthServiceCache services = this.oauthServices;
+        OAuthFilterConfiguration config = this.configuration;
+        if (services == null || services.getConfiguration() != config) {
+            // The configuration changed, the services built with the previous one are dropped
+            services = new OAuthServiceCache(config, config.getServiceCacheSize());
+            this.oauthServices = services;
         }
-
-        return sb.build();
+        return services.get(callbackURL);
     }
 
 
@@ -153,7 +142,48 @@ public class OAuthSSOAuthenticationFilter implements Filter {
         Token requestToken = oauthService.getRequestToken();
         req.getSession().setAttribute(ATTR_OAUTH_REQUEST_TOKEN, requestToken);
         */
-        resp.sendRedirect(oauthService.getAuthorizationUrl(null));
+        String authorizationUrl = oauthService.getAuthorizationUrl(null);
+        String state = this.issueState(req, resp);
+        resp.sendRedirect(authorizationUrl + (authorizationUrl.indexOf('?') < 0 ? '?' : '&') + PARAM_STATE + "=" + state);
+    }
+
+    /**
+     * Starts a login: a random nonce is kept by the browser in an HttpOnly cookie and only its digest is sent
+     * to the provider, which passes it back as the state parameter of the callback. A callback URL read from
+     * a log or a Referer header therefore does not let another client pass for the browser which started the login.
+     * The cookie header is written by hand since Servlet 2.5 cookies have no HttpOnly flag.
+     * @param request The request redirected to the provider
+     * @param response The response
+     * @return The state parameter
+     */
+    private String issueState(HttpServletRequest request, HttpServletResponse response) {
+        byte[] bytes = new byte[16];
+        STATE_RANDOM.nextBytes(bytes);
+        String nonce = Base64Url.encode(bytes);
+        String path = StringUtils.isEmpty(request.getContextPath()) ? "/" : request.getContextPath();
+        response.addHeader("Set-Cookie", STATE_COOKIE + "=" + nonce + "; Path=" + path + "; Max-Age=" + STATE_COOKIE_MAX_AGE +
+                "; HttpOnly; SameSite=Lax" + (request.isSecure() ? "; Secure" : ""));
+        return Digests.sha256Hex(nonce);
+    }
+
+    /**
+     * Gets the nonce of the login which the callback completes, when it comes back to the browser which started it
+     * @param request The callback request
+     * @return The nonce of the state cookie matching the state parameter, or null
+     */
+    private String getStateNonce(HttpServletRequest request) {
+        String state = QueryStrings.getParameter(request.getQueryString(), PARAM_STATE);
+        Cookie[] cookies = request.getCookies();
+        if (state == null || cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (STATE_COOKIE.equals(cookie.getName()) && cookie.getValue() != null &&
+                    state.equals(Digests.sha256Hex(cookie.getValue()))) {
+                return cookie.getValue();
+            }
+        }
+        return null;
     }
 
 
@@ -173,15 +203,166 @@ public class OAuthSSOAuthenticationFilter implements Filter {
         // Verifier verifier = new Verifier(oauthVerifierToken);
         // Token accessToken = oauthService.getAccessToken(requestToken, verifier);
 
-        Verifier verifier = new Verifier(authcode);
-        Token accessToken = oauthService.getAccessToken(null, verifier);
+        long start = System.nanoTime();
+        Object event = LoginEvents.begin();
+        Token accessToken;
+        try {
+            accessToken = this.getAccessToken(oauthService, req.getRequestURL().toString(), authcode);
+        } finally {
+            this.metrics.record(LoginMetrics.Stage.TOKEN_EXCHANGE, start);
+            LoginEvents.end(event, LoginMetrics.Stage.TOKEN_EXCHANGE);
+        }
+        if (accessToken == null) {
+            return null;
+        }
 
-        OAuthRequest request = new OAuthRequest(Verb.GET, getConfigurationValue(API_URI));
-        oauthService.signRequest(accessToken, request);
-        Response oauthResponse = request.send();
+        if (this.idTokenVerifier != null) {
+            GoogleProfileInfo profile = this.getIdTokenProfile(accessToken);
+            if (profile != null) {
+                return profile;
+            }
+        }
 
-        Gson gson = new Gson();
-        return gson.fromJson(oauthResponse.getBody(), GoogleProfileInfo.class);
+        start = System.nanoTime();
+        event = LoginEvents.begin();
+        try {
+            OAuthFilterConfiguration config = this.configuration;
+            OAuthRequest request = new OAuthRequest(Verb.GET, config.getApiUri());
+            request.setConnectTimeout(config.getApiConnectTimeout(), TimeUnit.MILLISECONDS);
+            request.setReadTimeout(config.getApiReadTimeout(), TimeUnit.MILLISECONDS);
+            oauthService.signRequest(accessToken, request);
+
+            this.providerBreaker.acquire();
+            GoogleProfileInfo profile;
+            int statusCode;
+            try {
+                Response oauthResponse = request.send();
+                statusCode = oauthResponse.getCode();
+                profile = oauthResponse.isSuccessful() ? JsonAdapters.read(oauthResponse.getStream(), GoogleProfileInfo.class) : null;
+            } catch (IOException e) {
+                this.providerBreaker.recordFailure();
+                throw e;
+            } catch (RuntimeException e) {
+                // Scribe wraps connection errors and timeouts in runtime exceptions
+                this.providerBreaker.recordFailure();
+                throw e;
+            }
+            this.recordStatus(this.providerBreaker, statusCode);
+            LoginEvents.httpStatus(statusCode);
+            if (profile == null) {
+                logger.debug("User profile request failed with status " + statusCode);
+            }
+            return profile;
+        } finally {
+            this.metrics.record(LoginMetrics.Stage.USERINFO, start);
+            LoginEvents.end(event, LoginMetrics.Stage.USERINFO);
+        }
+    }
+
+
+    /**
+     * Reads the user profile from the id_token returned with the access token, saving the userinfo call
+     * @param accessToken The token endpoint answer
+     * @return The profile or null if the answer has no valid id_token
+     */
+    private GoogleProfileInfo getIdTokenProfile(Token accessToken) {
+        String idToken = IdTokenVerifier.getIdToken(accessToken.getRawResponse());
+        if (idToken == null) {
+            logger.debug("No id_token returned with the access token, reading the userinfo");
+            return null;
+        }
+
+        long start = System.nanoTime();
+        Object event = LoginEvents.begin();
+        try {
+            IdTokenClaims claims = this.idTokenVerifier.verify(idToken);
+            return claims == null ? null : claims.toProfile();
+        } catch (IOException e) {
+            logger.debug("Unable to verify the id_token, reading the userinfo: " + e.getMessage());
+            return null;
+        } finally {
+            this.metrics.record(LoginMetrics.Stage.ID_TOKEN, start);
+            LoginEvents.end(event, LoginMetrics.Stage.ID_TOKEN);
+        }
+    }
+
+    /**
+     * Fetches the JSON Web Key Set of the OpenID provider
+     * @return The key set or null if the provider did not return it
+     * @throws IOException
+     */
+    private JwksKeyCache.KeySetResponse getJsonWebKeySet() throws IOException {
+        GetMethod method = new GetMethod(this.configuration.getJwksUri());
+        try {
+            int statusCode = this.executeMethod(this.providerHttpClient, this.providerBreaker, method);
+            if (statusCode != HttpStatus.SC_OK) {
+                logger.warn("Unable to load the OpenID provider keys, status " + statusCode);
+                return null;
+            }
+            Header cacheControl = method.getResponseHeader("Cache-Control");
+            return new JwksKeyCache.KeySetResponse(method.getResponseBodyAsString(),
+                    cacheControl == null ? null : cacheControl.getValue());
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Exchanges the authorization code for an access token.
+     * When a token URI is known (configured, or the one of the OAuth 2 API), the code is sent to it with the
+     * pooled provider HTTP client and its timeouts, using the verb and the answer format of the API: GET sends
+     * the parameters in the query string, other verbs post them as a form.
+     * @param oauthService The service built for the callback URL
+     * @param callbackURL The callback URL the code was issued for
+     * @param authcode The authorization code
+     * @return The access token or null if the provider refused the code
+     * @throws IOException
+     */
+    private Token getAccessToken(OAuthService oauthService, String callbackURL, String authcode) throws IOException {
+        OAuthFilterConfiguration config = this.configuration;
+        if (config.getApiTokenUri() == null) {
+            this.providerBreaker.acquire();
+            try {
+                Token token = oauthService.getAccessToken(null, new Verifier(authcode));
+                this.providerBreaker.recordSuccess();
+                return token;
+            } catch (RuntimeException e) {
+                this.providerBreaker.recordFailure();
+                throw e;
+            }
+        }
+
+        NameValuePair[] parameters = {
+                new NameValuePair("code", authcode),
+                new NameValuePair("client_id", config.getApiKey()),
+                new NameValuePair("client_secret", config.getApiSecret()),
+                new NameValuePair("redirect_uri", callbackURL),
+                new NameValuePair("grant_type", "authorization_code")
+        };
+        HttpMethodBase method;
+        if (config.getApiTokenVerb() == Verb.GET) {
+            method = new GetMethod(config.getApiTokenUri());
+            String endpointQuery = method.getQueryString();
+            method.setQueryString(parameters);
+            if (StringUtils.isNotEmpty(endpointQuery)) {
+                method.setQueryString(endpointQuery + "&" + method.getQueryString());
+            }
+        } else {
+            PostMethod post = new PostMethod(config.getApiTokenUri());
+            post.setRequestBody(parameters);
+            method = post;
+        }
+        try {
+            int statusCode = this.executeMethod(this.providerHttpClient, this.providerBreaker, method);
+            LoginEvents.httpStatus(statusCode);
+            if (statusCode != HttpStatus.SC_OK) {
+                logger.debug("Access token request failed with status " + statusCode);
+                return null;
+            }
+            return config.getApiTokenExtractor().extract(method.getResponseBodyAsString());
+        } finally {
+            method.releaseConnection();
+        }
     }
 
 
@@ -191,23 +372,62 @@ public class OAuthSSOAuthenticationFilter implements Filter {
      * @throws IOException
      */
     protected String getAdminAlfrescoTicket() throws IOException {
-        HttpClient client = new HttpClient();
-        PostMethod method = new PostMethod(getAPIUri(REPOSITORY_API_LOGIN));
+        OAuthFilterConfiguration config = this.configuration;
+        PostMethod method = new PostMethod(config.getLoginUri());
 
-        String input = "{ " +
-                "\"username\" : \"" + getConfigurationValue(REPOSITORY_ADMIN_USER) + "\", " +
-                "\"password\" : \"" + getConfigurationValue(REPOSITORY_ADMIN_PASSWORD) + "\" " +
-                "}";
-        method.setRequestEntity(new StringRequestEntity(input, "application/json", "utf-8"));
-        int statusCode = client.executeMethod(method);
+        method.setRequestEntity(new JsonRequestEntity()
+                .property("username", config.getAdminUser())
+                .property("password", config.getAdminPassword()));
+        Object event = LoginEvents.begin();
+        try {
+            int statusCode = this.executeMethod(this.httpClient, this.repositoryBreaker, method);
+            LoginEvents.httpStatus(statusCode);
 
-        if (statusCode != HttpStatus.SC_OK) {
-            return null;
+            if (statusCode != HttpStatus.SC_OK) {
+                return null;
+            }
+
+            TicketInfo ticket = JsonAdapters.read(method.getResponseBodyAsStream(), TicketInfo.class);
+            return ticket == null || ticket.data == null ? null : ticket.data.ticket;
+        } finally {
+            method.releaseConnection();
+            LoginEvents.end(event, LoginMetrics.Stage.ADMIN_TICKET);
         }
+    }
 
-        Gson ticketJSON = new Gson();
-        TicketInfo ticket = ticketJSON.fromJson(method.getResponseBodyAsString(), TicketInfo.class);
-        return ticket.data.ticket;
+    /**
+     * Executes a backend call through its circuit breaker
+     * @param client The client of the backend
+     * @param breaker The circuit breaker of the backend
+     * @param method The method to execute
+     * @return The HTTP status code
+     * @throws IOException If the call failed, or BackendUnavailableException if the circuit is open
+     */
+    private int executeMethod(HttpClient client, CircuitBreaker breaker, HttpMethod method) throws IOException {
+        breaker.acquire();
+        int statusCode;
+        try {
+            statusCode = client.executeMethod(method);
+        } catch (IOException e) {
+            breaker.recordFailure();
+            throw e;
+        } catch (RuntimeException e) {
+            breaker.recordFailure();
+            throw e;
+        }
+        this.recordStatus(breaker, statusCode);
+        return statusCode;
+    }
+
+    /**
+     * Server errors count as failures of the backend, other answers prove it is up
+     */
+    private void recordStatus(CircuitBreaker breaker, int statusCode) {
+        if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+            breaker.recordFailure();
+        } else {
+            breaker.recordSuccess();
+        }
     }
 
     /**
@@ -220,48 +440,144 @@ public class OAuthSSOAuthenticationFilter implements Filter {
     }
 
     /**
-     * Checks if the user exists in the Alfresco repository
+     * Reads the user from the Alfresco repository
      * @param username The user name
      * @param adminTicket The ticket used to perform the check
-     * @return true if the user exists, otherwise false
+     * @return The user properties if the user exists, otherwise null
      * @throws IOException
      */
-    protected boolean userExists(String username, String adminTicket) throws IOException {
-        GetMethod get = new GetMethod((getAPIUri(REPOSITORY_API_PEOPLE) + "/" + username));
+    protected PersonInfo getUser(String username, String adminTicket) throws IOException {
+        GetMethod get = new GetMethod(this.configuration.getPersonUri(username));
 
         this.addTicketParameter(get, adminTicket);
-        HttpClient client = new HttpClient();
-        boolean exists = client.executeMethod(get) == HttpStatus.SC_OK;
-        String userInfo = get.getResponseBodyAsString();
-        return (exists);
+        Object event = LoginEvents.begin();
+        try {
+            int statusCode = this.executeMethod(this.httpClient, this.repositoryBreaker, get);
+            LoginEvents.httpStatus(statusCode);
+            if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
+                throw new ExpiredTicketException("Admin ticket rejected while reading user " + username);
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                return null;
+            }
+
+            return JsonAdapters.read(get.getResponseBodyAsStream(), PersonInfo.class);
+        } finally {
+            get.releaseConnection();
+            LoginEvents.end(event, LoginMetrics.Stage.USER_EXISTS);
+        }
     }
 
 
+    /**
+     * Creates the user or updates the properties which differ from the repository
+     * @param username The user name
+     * @param userInfo The user profile
+     * @param adminTicket The ticket used to perform the update
+     * @param existingUser The user as currently stored in the repository or null to create it
+     * @return The user name if correctly saved or null
+     * @throws IOException
+     */
+    protected String saveUser(String username, GoogleProfileInfo userInfo, String adminTicket, PersonInfo existingUser) throws IOException {
 
+        boolean newUser = existingUser == null;
+        if (!newUser && isUpToDate(existingUser, userInfo)) {
+            // The repository is already up to date
+            return username;
+        }
 
-    protected String saveUser(String username, GoogleProfileInfo userInfo, String adminTicket, boolean newUser) throws IOException {
+        boolean firstNameChanged = newUser || !StringUtils.equals(existingUser.getFirstName(), userInfo.getGiven_name());
+        boolean lastNameChanged = newUser || !StringUtils.equals(existingUser.getLastName(), userInfo.getFamily_name());
+        boolean emailChanged = newUser || !StringUtils.equals(existingUser.getEmail(), userInfo.getEmail());
 
+        OAuthFilterConfiguration config = this.configuration;
         EntityEnclosingMethod saveUserMethod;
         if (newUser) {
-           saveUserMethod = new PostMethod(getAPIUri(REPOSITORY_API_PEOPLE));
+           saveUserMethod = new PostMethod(config.getPeopleUri());
         } else {
-            saveUserMethod = new PutMethod(getAPIUri(REPOSITORY_API_PEOPLE) + "/" + username);
+            saveUserMethod = new PutMethod(config.getPersonUri(username));
         }
 
         this.addTicketParameter(saveUserMethod, adminTicket);
 
-        String input = "{ " +
-                (newUser ? "\"userName\" : \"" + username + "\", " : "") +
-                "\"firstName\" : \"" + userInfo.getGiven_name() + "\", " +
-                "\"lastName\" : \"" + userInfo.getFamily_name() + "\", " +
-                "\"email\" : \"" + userInfo.getEmail() + "\", " +
-                (newUser ? "\"password\" : \"" + getConfigurationValue(USER_PASSWORD) + "\"" : "") +
-                " }";
+        JsonRequestEntity input = new JsonRequestEntity();
+        if (newUser) {
+            input.property("userName", username);
+        }
+        if (firstNameChanged) {
+            input.property("firstName", userInfo.getGiven_name());
+        }
+        if (lastNameChanged) {
+            input.property("lastName", userInfo.getFamily_name());
+        }
+        if (emailChanged) {
+            input.property("email", userInfo.getEmail());
+        }
+        if (newUser) {
+            input.property("password", config.getUserPassword());
+        }
 
-        saveUserMethod.setRequestEntity(new StringRequestEntity(input, "application/json", "utf-8"));
-        HttpClient client = new HttpClient();
+        int statusCode = this.executeUserSave(saveUserMethod, input, username);
+        return statusCode == HttpStatus.SC_OK ? username : null;
+    }
+
+    /**
+     * Updates the user in a single call and creates it only if the update answers 404
+     * @param username The user name
+     * @param userInfo The user profile
+     * @param adminTicket The ticket used to perform the update
+     * @return The user name if correctly saved or null
+     * @throws IOException
+     */
+    protected String upsertUser(String username, GoogleProfileInfo userInfo, String adminTicket) throws IOException {
+        PutMethod updateMethod = new PutMethod(this.configuration.getPersonUri(username));
+        this.addTicketParameter(updateMethod, adminTicket);
+
+        JsonRequestEntity input = new JsonRequestEntity()
+                .property("firstName", userInfo.getGiven_name())
+                .property("lastName", userInfo.getFamily_name())
+                .property("email", userInfo.getEmail());
+
+        int statusCode = this.executeUserSave(updateMethod, input, username);
+        if (statusCode == HttpStatus.SC_NOT_FOUND) {
+            return this.saveUser(username, userInfo, adminTicket, null);
+        }
+        return statusCode == HttpStatus.SC_OK ? username : null;
+    }
+
+    /**
+     * Sends the user properties to the repository
+     * @param method The POST or PUT method
+     * @param input The JSON body
+     * @param username The user name
+     * @return The HTTP status code
+     * @throws IOException
+     */
+    private int executeUserSave(EntityEnclosingMethod method, JsonRequestEntity input, String username) throws IOException {
+        method.setRequestEntity(input);
+        Object event = LoginEvents.begin();
+        try {
+            int statusCode = this.executeMethod(this.httpClient, this.repositoryBreaker, method);
+            LoginEvents.httpStatus(statusCode);
+            if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
+                throw new ExpiredTicketException("Admin ticket rejected while saving user " + username);
+            }
+            return statusCode;
+        } finally {
+            method.releaseConnection();
+            LoginEvents.end(event, LoginMetrics.Stage.SAVE_USER);
+        }
+    }
 
-        return client.executeMethod(saveUserMethod) == HttpStatus.SC_OK ? username : null;
+    /**
+     * @param existingUser The user as stored in the repository
+     * @param userInfo The user profile
+     * @return true if the repository already holds the profile values
+     */
+    private static boolean isUpToDate(PersonInfo existingUser, GoogleProfileInfo userInfo) {
+        return StringUtils.equals(existingUser.getFirstName(), userInfo.getGiven_name()) &&
+                StringUtils.equals(existingUser.getLastName(), userInfo.getFamily_name()) &&
+                StringUtils.equals(existingUser.getEmail(), userInfo.getEmail());
     }
 
     /**
@@ -271,32 +587,21 @@ public class OAuthSSOAuthenticationFilter implements Filter {
      * @return true if the email is valid
      */
     protected boolean isUserValid(String userEmail) {
+        return this.configuration.getDomainMatcher().isValid(userEmail);
+    }
 
-        if (!EmailValidator.getInstance().isValid(userEmail)) {
-            return false;
-        }
-
-        String[] emailParts = StringUtils.split(userEmail, '@');
-
-        if (emailParts.length != 2 || StringUtils.isBlank(emailParts[0]) || StringUtils.isBlank(emailParts[1])) {
-            return false;
-        }
-
-        String domains = getConfigurationValue(USER_DOMAIN);
-        if (StringUtils.isBlank(domains)) {
-            return true;
-        }
-
-        for (String validDomain : StringUtils.split(domains, ',')) {
-            if (StringUtils.isBlank(validDomain)) {
-                continue;
-            }
-            if (StringUtils.trim(validDomain).equalsIgnoreCase(emailParts[1])) {
-                return true;
-            }
+    /**
+     * Checks the Google Workspace domain of the account ("hd"). When present it must be an allowed domain.
+     * It is mandatory with repository.require-hosted-domain, which refuses consumer accounts registered
+     * with an address of an allowed domain
+     * @param hostedDomain The hosted domain or null
+     * @return true if the user may log in
+     */
+    protected boolean isHostedDomainValid(String hostedDomain) {
+        if (hostedDomain == null) {
+            return !this.configuration.isHostedDomainRequired();
         }
-
-        return false;
+        return this.configuration.getDomainMatcher().isAllowedDomain(hostedDomain);
     }
 
 
@@ -313,19 +618,257 @@ public class OAuthSSOAuthenticationFilter implements Filter {
 
         GoogleProfileInfo userInfo = this.getUserProfile(request, response, authCode);
         if (userInfo == null) {
+            this.metrics.count(LoginMetrics.Outcome.REJECTED);
+            return null;
+        }
+
+        // Whoever controls an unverified address could take over the matching account, whichever path read the profile
+        if (!userInfo.isVerified_email()) {
+            logger.debug("Rejected unverified email " + userInfo.getEmail());
+            this.metrics.count(LoginMetrics.Outcome.REJECTED);
             return null;
         }
 
-        if (!isUserValid(userInfo.getEmail())) {
+        if (!isUserValid(userInfo.getEmail()) || !isHostedDomainValid(userInfo.getHd())) {
+            this.metrics.count(LoginMetrics.Outcome.DOMAIN_REJECTED);
             return null;
         }
 
         String username = StringUtils.split(userInfo.getEmail(), '@')[0];
+        LoginEvents.user(username);
 
-        String adminTicket = this.getAdminAlfrescoTicket();
-        boolean newUser = !userExists(username, adminTicket);
-        return this.saveUser(username, userInfo, adminTicket, newUser);
+        // Nothing to push if the user was provisioned recently with the same profile
+        String profileDigest = this.getProfileDigest(userInfo);
+        if (profileDigest.equals(this.provisionedUsers.get(username))) {
+            return username;
+        }
+
+        // Several tabs or client retries may call back for the same user at once, only one provisions it
+        final String user = username;
+        final GoogleProfileInfo profile = userInfo;
+        String savedUsername = this.provisioningFlights.execute(username, new SingleFlight.Task<String>() {
+            @Override
+            public String run() throws IOException {
+                return provisionWithAdminTicket(user, profile);
+            }
+        });
 
+        if (savedUsername == null) {
+            this.metrics.count(LoginMetrics.Outcome.BACKEND_ERROR);
+        }
+        return savedUsername;
+    }
+
+    /**
+     * Provisions the user with the shared admin ticket, refreshing the ticket once if the repository rejects it
+     * @param username The user name
+     * @param userInfo The user profile
+     * @return The user name if correctly saved or null
+     * @throws IOException
+     */
+    private String provisionWithAdminTicket(String username, GoogleProfileInfo userInfo) throws IOException {
+        String adminTicket = this.getAdminTicket();
+        if (adminTicket == null) {
+            logger.error("Unable to get an admin ticket from the repository");
+            return null;
+        }
+
+        String savedUsername;
+        try {
+            savedUsername = this.provisionUser(username, userInfo, adminTicket);
+        } catch (ExpiredTicketException e) {
+            // The cached ticket is no longer valid on the repository, get a fresh one and retry once
+            this.adminTicketCache.invalidate(adminTicket);
+            adminTicket = this.getAdminTicket();
+            if (adminTicket == null) {
+                logger.error("Unable to get an admin ticket from the repository");
+                return null;
+            }
+            savedUsername = this.provisionUser(username, userInfo, adminTicket);
+        }
+        return savedUsername;
+    }
+
+    /**
+     * Processes the callback, waits for the one already processing it, or answers it again if it was resolved
+     * a moment ago. The code can only be exchanged once, so a reload of the callback URL or a double submit
+     * would otherwise cost a provider round trip for a rejected login.
+     * Only the callbacks coming back to the browser which started the login, proven by its state cookie, are
+     * shared or remembered: a replayed callback URL is always exchanged again, and refused by the provider.
+     * @param request The request
+     * @param response The response
+     * @param authCode The authorization code
+     * @return The user name if correctly identified or null
+     * @throws IOException
+     */
+    private String resolveCallback(final HttpServletRequest request, final HttpServletResponse response, final String authCode) throws IOException {
+        String nonce = this.getStateNonce(request);
+        if (nonce == null) {
+            // Started by another tab since, or not by this browser at all
+            try {
+                return processRequestToken(request, response, authCode);
+            } catch (ServletException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        String callbackKey = Digests.sha256Hex(authCode, nonce);
+        String username = this.resolvedCallbacks.get(callbackKey);
+        if (username != null) {
+            return username;
+        }
+
+        username = this.callbackFlights.execute(callbackKey, new SingleFlight.Task<String>() {
+            @Override
+            public String run() throws IOException {
+                try {
+                    return processRequestToken(request, response, authCode);
+                } catch (ServletException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        });
+        if (username != null) {
+            this.resolvedCallbacks.put(callbackKey, username);
+        }
+        return username;
+    }
+
+    /**
+     * Gets the shared admin ticket and times it
+     * @return The ticket or null if none could be obtained
+     * @throws IOException
+     */
+    private String getAdminTicket() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return this.adminTicketCache.getTicket();
+        } finally {
+            this.metrics.record(LoginMetrics.Stage.ADMIN_TICKET, start);
+        }
+    }
+
+    /**
+     * Remembers that the repository holds this profile, so that the next logins skip the provisioning
+     * @param username The user name
+     * @param userInfo The saved profile
+     */
+    private void rememberProvisioned(String username, GoogleProfileInfo userInfo) {
+        this.provisionedUsers.put(username, this.getProfileDigest(userInfo));
+    }
+
+    /**
+     * Computes a digest of the profile fields pushed to the repository
+     * @param userInfo The user profile
+     * @return The hexadecimal digest
+     */
+    protected String getProfileDigest(GoogleProfileInfo userInfo) {
+        return Digests.sha256Hex(userInfo.getGiven_name(), userInfo.getFamily_name(), userInfo.getEmail());
+    }
+
+    /**
+     * Creates or updates the user in the repository, and remembers the profile once it is saved
+     * @param username The user name
+     * @param userInfo The user profile
+     * @param adminTicket The ticket used to perform the update
+     * @return The user name if correctly saved or null
+     * @throws IOException
+     */
+    protected String provisionUser(String username, GoogleProfileInfo userInfo, String adminTicket) throws IOException {
+        long start = System.nanoTime();
+        String savedUsername;
+        if (this.configuration.isUpsertProvisioning()) {
+            try {
+                savedUsername = this.upsertUser(username, userInfo, adminTicket);
+            } finally {
+                this.metrics.record(LoginMetrics.Stage.SAVE_USER, start);
+            }
+            if (savedUsername != null) {
+                this.rememberProvisioned(username, userInfo);
+            }
+            return savedUsername;
+        }
+
+        PersonInfo existingUser;
+        try {
+            existingUser = this.getUser(username, adminTicket);
+        } finally {
+            this.metrics.record(LoginMetrics.Stage.USER_EXISTS, start);
+        }
+        if (existingUser != null && this.profileUpdateExecutor != null && !isUpToDate(existingUser, userInfo)) {
+            // The user can log in right away, the profile update does not need to block the response.
+            // The task remembers the profile only once it is saved
+            try {
+                this.profileUpdateExecutor.execute(new ProfileUpdateTask(username, userInfo, adminTicket, existingUser));
+                return username;
+            } catch (RejectedExecutionException e) {
+                logger.debug("Profile update queue full, updating " + username + " synchronously");
+            }
+        }
+
+        start = System.nanoTime();
+        try {
+            savedUsername = this.saveUser(username, userInfo, adminTicket, existingUser);
+        } finally {
+            this.metrics.record(LoginMetrics.Stage.SAVE_USER, start);
+        }
+        if (savedUsername != null) {
+            this.rememberProvisioned(username, userInfo);
+        }
+        return savedUsername;
+    }
+
+    /**
+     * Updates an existing user in the background
+     */
+    private class ProfileUpdateTask implements Runnable {
+        private final String username;
+        private final GoogleProfileInfo userInfo;
+        private final String adminTicket;
+        private final PersonInfo existingUser;
+
+        private ProfileUpdateTask(String username, GoogleProfileInfo userInfo, String adminTicket, PersonInfo existingUser) {
+            this.username = username;
+            this.userInfo = userInfo;
+            this.adminTicket = adminTicket;
+            this.existingUser = existingUser;
+        }
+
+        @Override
+        public void run() {
+            String savedUsername;
+            try {
+                try {
+                    savedUsername = saveUser(username, userInfo, adminTicket, existingUser);
+                } catch (ExpiredTicketException e) {
+                    adminTicketCache.invalidate(adminTicket);
+                    String freshTicket = adminTicketCache.getTicket();
+                    savedUsername = freshTicket == null ? null : saveUser(username, userInfo, freshTicket, existingUser);
+                }
+            } catch (Exception e) {
+                logger.error("Background profile update failed for " + username + ": " + e.getMessage());
+                savedUsername = null;
+            }
+
+            if (savedUsername != null) {
+                rememberProvisioned(username, userInfo);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the authorization code sent back by the OAuth provider.
+     * The provider redirects back with a GET, other requests are never callbacks.
+     * Only the query string is read so that posted bodies are left untouched for Share.
+     * @param request The request
+     * @return The authorization code or null if the request is not an OAuth callback
+     */
+    protected String getAuthorizationCode(HttpServletRequest request) {
+        if (!METHOD_GET.equals(request.getMethod())) {
+            return null;
+        }
+        return QueryStrings.getParameter(request.getQueryString(), PARAM_CODE);
     }
 
 
@@ -338,26 +881,36 @@ public class OAuthSSOAuthenticationFilter implements Filter {
      * @return The username if successfulyl authenticated, otherwise null
      * @throws IOException
      * @throws ServletException
+     * @throws BackendUnavailableException If the circuit of a backend is open
      */
     protected String doOAuthAuthentication(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 
 
-        String authCode = request.getParameter("code");
+        String authCode = this.getAuthorizationCode(request);
 
         //Token requestToken = (Token) request.getSession().getAttribute(ATTR_OAUTH_REQUEST_TOKEN);
 
         if (authCode == null) {
             try {
                 this.processNoRequestToken(request, response);
+                this.metrics.count(LoginMetrics.Outcome.REDIRECT);
                 return null;
             } catch (Exception e) {
                 logger.debug("Authentication failed: " + e.getMessage());
+                this.metrics.count(LoginMetrics.Outcome.BACKEND_ERROR);
             }
         } else {
+            long start = System.nanoTime();
             try {
-                return this.processRequestToken(request, response, authCode);
+                return this.resolveCallback(request, response, authCode);
+            } catch (BackendUnavailableException e) {
+                // Answered by doFilter
+                throw e;
             } catch (Exception e) {
                 logger.debug("Authentication failed: " + e.getMessage());
+                this.metrics.count(LoginMetrics.Outcome.BACKEND_ERROR);
+            } finally {
+                this.metrics.record(LoginMetrics.Stage.CALLBACK, start);
             }
         }
 
@@ -378,6 +931,142 @@ public class OAuthSSOAuthenticationFilter implements Filter {
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         this.servletContext = filterConfig.getServletContext();
+        OAuthFilterConfiguration config;
+        try {
+            config = OAuthFilterConfiguration.load((ConfigService) getApplicationContext().getBean("web.config"));
+        } catch (RuntimeException e) {
+            throw new ServletException("Unable to load the OAuth Filter configuration", e);
+        }
+        this.configure(config);
+        this.registerMetrics();
+    }
+
+    /**
+     * Sets the configuration and creates the resources depending on it.
+     * Called by init, and directly by the benchmarks which run without a Spring context.
+     * @param config The filter configuration
+     */
+    void configure(OAuthFilterConfiguration config) {
+        this.configuration = config;
+        this.createHttpClient(config);
+        this.repositoryBreaker = new CircuitBreaker("repository", config.getRepositoryBreakerFailures(),
+                config.getRepositoryBreakerOpenTime() * 1000L);
+        this.providerBreaker = new CircuitBreaker("OAuth provider", config.getApiBreakerFailures(),
+                config.getApiBreakerOpenTime() * 1000L);
+        this.loginPermits = config.getMaxConcurrentLogins() > 0 ? new Semaphore(config.getMaxConcurrentLogins()) : null;
+        if (config.isOpenId()) {
+            this.providerKeys = new JwksKeyCache(new JwksKeyCache.KeySetLoader() {
+                @Override
+                public JwksKeyCache.KeySetResponse loadKeySet() throws IOException {
+                    return getJsonWebKeySet();
+                }
+            }, DEFAULT_JWKS_MAX_AGE, config.getJwksRefetchInterval() * 1000L);
+            this.providerKeys.start();
+            this.idTokenVerifier = new IdTokenVerifier(this.providerKeys, config.getIdTokenIssuers(), config.getApiKey(),
+                    config.getClockSkew());
+        } else {
+            this.idTokenVerifier = null;
+        }
+        this.adminTicketCache = new AdminTicketCache(new AdminTicketCache.TicketLoader() {
+            @Override
+            public String loadTicket() throws IOException {
+                return getAdminAlfrescoTicket();
+            }
+        }, config.getAdminTicketTtl() * 1000L, ADMIN_LOGIN_FAILURE_BACKOFF);
+        this.provisionedUsers = new ExpiringLruCache<String, String>(config.getUserCacheSize(),
+                config.getUserCacheMaxAge() * 1000L);
+        this.provisioningFlights = new SingleFlight<String, String>(config.getProvisioningWaitTimeout());
+        this.callbackFlights = new SingleFlight<String, String>(config.getProvisioningWaitTimeout());
+        this.resolvedCallbacks = new ExpiringLruCache<String, String>(config.getCallbackCacheSize(),
+                config.getCallbackCacheMaxAge() * 1000L);
+        this.createProfileUpdateExecutor(config);
+    }
+
+    /**
+     * Creates the bounded executor running the background profile updates.
+     * When its queue is full, updates are rejected and done during the login instead.
+     * @param config The filter configuration
+     */
+    private void createProfileUpdateExecutor(OAuthFilterConfiguration config) {
+        if (config.getAsyncUpdateThreads() <= 0) {
+            return;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.profileUpdateExecutor = new ThreadPoolExecutor(
+                config.getAsyncUpdateThreads(), config.getAsyncUpdateThreads(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, config.getAsyncUpdateQueue())),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "OAuthSSO-profile-update-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.profileUpdateExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Publishes the login metrics on the platform MBean server, one MBean per Share webapp
+     */
+    private void registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("ch.gadp.alfresco:type=LoginMetrics,context=" +
+                    ObjectName.quote(this.servletContext.getContextPath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.metrics, name);
+            this.metricsName = name;
+        } catch (JMException e) {
+            logger.warn("Unable to register the login metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The login counters and latencies
+     */
+    LoginMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Creates the HTTP client shared by all the repository calls.
+     * Connections are pooled and kept alive between logins, idle ones are closed in the background.
+     * @param config The filter configuration
+     */
+    private void createHttpClient(OAuthFilterConfiguration config) {
+        this.connectionManager = this.createConnectionManager(config, config.getConnectionTimeout(), config.getSocketTimeout());
+        this.httpClient = new HttpClient(this.connectionManager);
+        // Do not wait forever for a pooled connection when the pool is exhausted
+        this.httpClient.getParams().setConnectionManagerTimeout(config.getConnectionTimeout());
+
+        // The provider gets its own pool so that a slow provider cannot starve the repository calls
+        this.providerConnectionManager = this.createConnectionManager(config, config.getApiConnectTimeout(), config.getApiReadTimeout());
+        this.providerHttpClient = new HttpClient(this.providerConnectionManager);
+        this.providerHttpClient.getParams().setConnectionManagerTimeout(config.getApiConnectTimeout());
+
+        this.idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+        this.idleConnectionTimeoutThread.setName("OAuthSSO-idle-connection-evictor");
+        this.idleConnectionTimeoutThread.setConnectionTimeout(config.getIdleConnectionTimeout());
+        this.idleConnectionTimeoutThread.setTimeoutInterval(Math.max(1000, config.getIdleConnectionTimeout() / 2));
+        this.idleConnectionTimeoutThread.addConnectionManager(this.connectionManager);
+        this.idleConnectionTimeoutThread.addConnectionManager(this.providerConnectionManager);
+        this.idleConnectionTimeoutThread.start();
+    }
+
+    /**
+     * Creates a pooled connection manager with the given timeouts
+     */
+    private MultiThreadedHttpConnectionManager createConnectionManager(OAuthFilterConfiguration config, int connectTimeout, int readTimeout) {
+        MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(config.getMaxConnectionsPerHost());
+        params.setMaxTotalConnections(config.getMaxConnections());
+        params.setConnectionTimeout(connectTimeout);
+        params.setSoTimeout(readTimeout);
+        params.setStaleCheckingEnabled(true);
+        return manager;
     }
 
     /**
@@ -394,32 +1083,108 @@ public class OAuthSSOAuthenticationFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
         HttpServletResponse response = (HttpServletResponse) servletResponse;
 
-        // Utility parameter to bypass oauth for the session
-        if (request.getParameter("bypassOAuth") != null || request.getSession().getAttribute("share.bypassOAuth") != null) {
-            request.getSession().setAttribute("share.bypassOAuth", true);
+        // Static resources and other excluded paths never need OAuth
+        if (this.configuration.getExcludedPaths().isExcluded(request)) {
             chain.doFilter(servletRequest, servletResponse);
             return;
         }
 
+        // Never create a session here: anonymous requests without one cannot be bypassed nor authenticated
+        HttpSession session = request.getSession(false);
 
-        if (AuthenticationUtil.isAuthenticated(request)) {
+        if (session != null && session.getAttribute(ATTR_BYPASS_OAUTH) != null) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        // Utility parameter to bypass oauth for the session
+        if (QueryStrings.hasParameter(request.getQueryString(), PARAM_BYPASS_OAUTH)) {
+            request.getSession().setAttribute(ATTR_BYPASS_OAUTH, Boolean.TRUE);
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        if (session != null && AuthenticationUtil.isAuthenticated(request)) {
             // Already authenticated
             chain.doFilter(request, response);
             return;
         }
 
-        String username = this.doOAuthAuthentication(request, response);
-        if (username != null) {
-            UserFactory userFactory = (UserFactory) getApplicationContext().getBean("user.factory");
-            boolean authenticated = userFactory.authenticate(request, username, getConfigurationValue(USER_PASSWORD));
-            if (authenticated) {
-                AuthenticationUtil.login(request, response, username);
+        String authCode = this.getAuthorizationCode(request);
+        if (!this.configuration.getRequestClassifier().isNavigation(request) && authCode == null) {
+            // XHR and API calls cannot follow the provider redirect, tell them they are not authenticated
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.setContentLength(0);
+            return;
+        }
+
+        // Bulkhead: only the callbacks call the backends, the redirects are cheap
+        Semaphore permits = authCode != null ? this.loginPermits : null;
+        if (permits != null && !permits.tryAcquire()) {
+            logger.debug("Too many concurrent logins, asking the client to retry later");
+            this.metrics.count(LoginMetrics.Outcome.UNAVAILABLE);
+            this.sendUnavailable(response, this.configuration.getBusyRetryAfter());
+            return;
+        }
+
+        LoginEvents.beginLogin();
+        try {
+            String username = this.doOAuthAuthentication(request, response);
+            if (username != null) {
+                long start = System.nanoTime();
+                Object event = LoginEvents.begin();
+                boolean authenticated;
+                try {
+                    authenticated = this.authenticateUser(request, username);
+                } finally {
+                    this.metrics.record(LoginMetrics.Stage.SHARE_AUTHENTICATE, start);
+                    LoginEvents.end(event, LoginMetrics.Stage.SHARE_AUTHENTICATE);
+                }
+                if (authenticated) {
+                    AuthenticationUtil.login(request, response, username);
+                    this.metrics.count(LoginMetrics.Outcome.SUCCESS);
+                } else {
+                    // The user may have been deleted or reset in the repository, provision it again next time
+                    this.provisionedUsers.remove(username);
+                    this.metrics.count(LoginMetrics.Outcome.REJECTED);
+                }
+            }
+        } catch (BackendUnavailableException e) {
+            logger.debug(e.getMessage());
+            this.metrics.count(LoginMetrics.Outcome.UNAVAILABLE);
+            this.sendUnavailable(response, e.getRetryAfterSeconds());
+            return;
+        } finally {
+            LoginEvents.endLogin();
+            if (permits != null) {
+                permits.release();
             }
         }
         chain.doFilter(servletRequest, servletResponse);
 
     }
 
+    /**
+     * Answers 503 with a Retry-After header
+     * @param response The response
+     * @param retryAfterSeconds The delay after which the client may retry
+     */
+    private void sendUnavailable(HttpServletResponse response, long retryAfterSeconds) throws IOException {
+        response.setHeader("Retry-After", String.valueOf(Math.max(1, retryAfterSeconds)));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Authenticates the provisioned user against Share with the common OAuth user password
+     * @param request The request
+     * @param username The user name
+     * @return true if Share accepted the user
+     */
+    protected boolean authenticateUser(HttpServletRequest request, String username) {
+        UserFactory userFactory = (UserFactory) getApplicationContext().getBean("user.factory");
+        return userFactory.authenticate(request, username, this.configuration.getUserPassword());
+    }
+
     /**
      * Called by the web container to indicate to a filter that it is being taken out of service. This
      * method is only called once all threads within the filter's doFilter method have exited or after
@@ -432,7 +1197,34 @@ public class OAuthSSOAuthenticationFilter implements Filter {
      */
     @Override
     public void destroy() {
-
+        if (this.metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.metricsName);
+            } catch (JMException e) {
+                logger.debug("Unable to unregister the login metrics: " + e.getMessage());
+            }
+            this.metricsName = null;
+        }
+        if (this.profileUpdateExecutor != null) {
+            this.profileUpdateExecutor.shutdown();
+            try {
+                this.profileUpdateExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.idleConnectionTimeoutThread != null) {
+            this.idleConnectionTimeoutThread.shutdown();
+        }
+        if (this.connectionManager != null) {
+            this.connectionManager.shutdown();
+        }
+        if (this.providerConnectionManager != null) {
+            this.providerConnectionManager.shutdown();
+        }
+        if (this.providerKeys != null) {
+            this.providerKeys.shutdown();
+        }
     }
 
 
@@ -0,0 +1,113 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.lang.StringUtils;
+import org.scribe.builder.ServiceBuilder;
+import org.scribe.oauth.OAuthService;
+
+/**
+ * Keeps the Scribe OAuth services built for a configuration, by callback URL.
+ * Services are immutable once built so they are shared between requests. A new cache
+ * must be created when the configuration changes. When the cache is full the least
+ * recently used callback URL is evicted.
+ */
+public class OAuthServiceCache {
+
+    private final OAuthFilterConfiguration configuration;
+    private final ExpiringLruCache<String, OAuthService> services;
+
+    /**
+     * @param configuration The configuration used to build the services
+     * @param maxSize The maximum number of cached callback URLs. 0 builds the service on each call
+     */
+    public OAuthServiceCache(OAuthFilterConfiguration configuration, int maxSize) {
+        this.configuration = configuration;
+        this.services = new ExpiringLruCache<String, OAuthService>(maxSize, Long.MAX_VALUE);
+    }
+
+    public OAuthFilterConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Gets the service for the given callback URL, building it if needed
+     * @param callbackURL The callback URL or null
+     * @return The service
+     */
+    public OAuthService get(String callbackURL) {
+        String key = normalize(callbackURL);
+        OAuthService service = services.get(key);
+        if (service != null) {
+            return service;
+        }
+
+        service = build(key);
+        services.put(key, service);
+        return service;
+    }
+
+    /**
+     * @return The number of cached services
+     */
+    int size() {
+        return services.size();
+    }
+
+    private OAuthService build(String callbackURL) {
+        ServiceBuilder sb = new ServiceBuilder()
+                .provider(configuration.getApiClass())
+                .apiKey(configuration.getApiKey())
+                .apiSecret(configuration.getApiSecret())
+                .scope(configuration.getApiScope())
+                .approvalPrompt(configuration.getApiPrompt());
+        if (StringUtils.isNotEmpty(callbackURL)) {
+            sb.callback(callbackURL);
+        }
+
+        return sb.build();
+    }
+
+    /**
+     * Lower cases the scheme and host and drops any path parameter such as ;jsessionid
+     * @param url The URL
+     * @return The normalized URL, empty if the URL is null
+     */
+    static String normalize(String url) {
+        if (url == null) {
+            return "";
+        }
+
+        int pathParameter = url.indexOf(';');
+        if (pathParameter >= 0) {
+            url = url.substring(0, pathParameter);
+        }
+
+        int authorityStart = url.indexOf("://");
+        if (authorityStart < 0) {
+            return url;
+        }
+        int pathStart = url.indexOf('/', authorityStart + 3);
+        if (pathStart < 0) {
+            return url.toLowerCase();
+        }
+        String authority = url.substring(0, pathStart);
+        String lowerAuthority = authority.toLowerCase();
+        return lowerAuthority.equals(authority) ? url : lowerAuthority + url.substring(pathStart);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Matches the requests which never need OAuth, by path prefix (relative to the context path) or path suffix.
+ * Prefixes and suffixes are compiled into tries once so that matching a request is a single walk of its path.
+ * The path is the one the container resolved the servlet with, decoded, without ".." segments or path
+ * parameters, so that "/share/res/../page/dashboard" is matched as "/page/dashboard".
+ */
+public class PathExclusionMatcher {
+
+    private final CharTrie prefixes = new CharTrie(false, false);
+    private final CharTrie suffixes = new CharTrie(true, false);
+
+    /**
+     * @param prefixes Comma separated path prefixes, e.g. "/res/,/proxy/". May be blank
+     * @param suffixes Comma separated path suffixes, e.g. ".css,.js". May be blank
+     */
+    public PathExclusionMatcher(String prefixes, String suffixes) {
+        addAll(this.prefixes, prefixes);
+        addAll(this.suffixes, suffixes);
+    }
+
+    private static void addAll(CharTrie trie, String values) {
+        if (StringUtils.isBlank(values)) {
+            return;
+        }
+        for (String value : StringUtils.split(values, ',')) {
+            String trimmed = StringUtils.trimToNull(value);
+            if (trimmed != null) {
+                trie.add(trimmed);
+            }
+        }
+    }
+
+    /**
+     * @return true if no exclusion is configured
+     */
+    public boolean isEmpty() {
+        return prefixes.isEmpty() && suffixes.isEmpty();
+    }
+
+    /**
+     * @param request The request
+     * @return true if the request path matches an excluded prefix or suffix
+     */
+    public boolean isExcluded(HttpServletRequest request) {
+        if (isEmpty()) {
+            return false;
+        }
+
+        String path = getPath(request);
+        if (path == null) {
+            return false;
+        }
+        return prefixes.matches(path, 0, path.length()) || suffixes.matches(path, 0, path.length());
+    }
+
+    /**
+     * Gets the path of the request within the context, as normalized by the container.
+     * The raw request URI is never matched: it may hold ".." segments, encoded characters or path parameters
+     * @param request The request
+     * @return The servlet path followed by the path info, or null if the container gives none
+     */
+    static String getPath(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null) {
+            return servletPath;
+        }
+        if (servletPath == null || servletPath.length() == 0) {
+            return pathInfo;
+        }
+        return servletPath + pathInfo;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Reads parameters from the query string only.
+ * Unlike ServletRequest.getParameter, this never makes the container read and parse a form encoded body.
+ */
+final class QueryStrings {
+
+    private QueryStrings() {
+    }
+
+    /**
+     * Gets the first value of a query string parameter
+     * @param queryString The raw query string, may be null
+     * @param name The parameter name
+     * @return The decoded value, an empty string if the parameter has no value, or null if it is missing
+     */
+    static String getParameter(String queryString, String name) {
+        if (queryString == null) {
+            return null;
+        }
+
+        int length = queryString.length();
+        int nameLength = name.length();
+        int start = 0;
+        while (start <= length) {
+            int end = queryString.indexOf('&', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end - start >= nameLength && queryString.regionMatches(start, name, 0, nameLength)) {
+                int nameEnd = start + nameLength;
+                if (nameEnd == end) {
+                    return "";
+                }
+                if (queryString.charAt(nameEnd) == '=') {
+                    return decode(queryString.substring(nameEnd + 1, end));
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @param queryString The raw query string, may be null
+     * @param name The parameter name
+     * @return true if the parameter is present, with or without a value
+     */
+    static boolean hasParameter(String queryString, String name) {
+        return getParameter(queryString, name) != null;
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        } catch (IllegalArgumentException e) {
+            // Malformed escape sequence, keep the raw value
+            return value;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Tells top level browser navigations apart from XHR and API calls.
+ * Only navigations can usefully follow a redirect to the OAuth provider authorization page.
+ */
+public class RequestClassifier {
+
+    private static final String HEADER_REQUESTED_WITH = "X-Requested-With";
+    private static final String HEADER_ACCEPT = "Accept";
+    private static final String XML_HTTP_REQUEST = "XMLHttpRequest";
+
+    private final CharTrie apiPrefixes = new CharTrie(false, false);
+    private final boolean checkRequestedWith;
+    private final boolean checkAccept;
+
+    /**
+     * @param apiPrefixes Comma separated path prefixes, relative to the context path, of API requests. May be blank
+     * @param checkRequestedWith true to treat requests sent with X-Requested-With: XMLHttpRequest as API requests
+     * @param checkAccept true to treat requests which do not accept HTML as API requests
+     */
+    public RequestClassifier(String apiPrefixes, boolean checkRequestedWith, boolean checkAccept) {
+        if (StringUtils.isNotBlank(apiPrefixes)) {
+            for (String prefix : StringUtils.split(apiPrefixes, ',')) {
+                String trimmed = StringUtils.trimToNull(prefix);
+                if (trimmed != null) {
+                    this.apiPrefixes.add(trimmed);
+                }
+            }
+        }
+        this.checkRequestedWith = checkRequestedWith;
+        this.checkAccept = checkAccept;
+    }
+
+    /**
+     * @param request The request
+     * @return true if the request is a top level navigation which may be redirected to the provider
+     */
+    public boolean isNavigation(HttpServletRequest request) {
+        if (checkRequestedWith && XML_HTTP_REQUEST.equalsIgnoreCase(request.getHeader(HEADER_REQUESTED_WITH))) {
+            return false;
+        }
+
+        if (checkAccept) {
+            String accept = request.getHeader(HEADER_ACCEPT);
+            if (accept != null && accept.indexOf("text/html") < 0 && accept.indexOf("*/*") < 0) {
+                return false;
+            }
+        }
+
+        if (!apiPrefixes.isEmpty()) {
+            String path = PathExclusionMatcher.getPath(request);
+            if (path != null && apiPrefixes.matches(path, 0, path.length())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collapses concurrent executions of the same work.
+ * The first caller for a key runs the task, the callers arriving while it runs wait for its result
+ * instead of repeating the work. The key is released as soon as the task completes, so results are not cached.
+ * @param <K> The key type
+ * @param <V> The result type
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * The work shared by the callers of the same key
+     */
+    public interface Task<V> {
+        /**
+         * @return The result given to every waiting caller
+         * @throws IOException
+         */
+        V run() throws IOException;
+    }
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final long timeoutMillis;
+
+    /**
+     * @param timeoutMillis How long a caller waits for the task run by another one
+     */
+    public SingleFlight(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs the task, or waits for the one already running for the key
+     * @param key The key identifying the work
+     * @param task The task to run if none is running for the key
+     * @return The task result
+     * @throws IOException The exception of the task, or InterruptedIOException if the wait timed out or was interrupted
+     */
+    public V execute(K key, final Task<V> task) throws IOException {
+        FutureTask<V> future = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws IOException {
+                return task.run();
+            }
+        });
+
+        FutureTask<V> running = inFlight.putIfAbsent(key, future);
+        if (running == null) {
+            try {
+                future.run();
+            } finally {
+                inFlight.remove(key, future);
+            }
+            return getResult(future, 0);
+        }
+        return getResult(running, timeoutMillis);
+    }
+
+    /**
+     * @return The number of keys being worked on
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    private static <V> V getResult(FutureTask<V> future, long timeoutMillis) throws IOException {
+        try {
+            return timeoutMillis > 0 ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause.getMessage());
+        } catch (TimeoutException e) {
+            throw new InterruptedIOException("Gave up waiting after " + timeoutMillis + " ms for the same work in progress");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the same work in progress");
+        }
+    }
+}
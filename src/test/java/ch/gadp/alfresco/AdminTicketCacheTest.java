@@ -0,0 +1,169 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class AdminTicketCacheTest {
+
+    @Test
+    public void reusesTheTicketUntilInvalidated() throws IOException {
+        CountingLoader loader = new CountingLoader("TICKET");
+        AdminTicketCache cache = new AdminTicketCache(loader, 60000, 5000);
+
+        assertEquals("TICKET", cache.getTicket());
+        assertEquals("TICKET", cache.getTicket());
+        assertEquals(1, loader.calls.get());
+
+        cache.invalidate("TICKET");
+        assertEquals("TICKET", cache.getTicket());
+        assertEquals(2, loader.calls.get());
+    }
+
+    @Test
+    public void refusedLoginIsNotRetriedDuringTheBackoff() throws IOException {
+        CountingLoader loader = new CountingLoader(null);
+        AdminTicketCache cache = new AdminTicketCache(loader, 60000, 60000);
+
+        assertNull(cache.getTicket());
+        assertNull(cache.getTicket());
+        assertEquals(1, loader.calls.get());
+    }
+
+    @Test
+    public void refusedLoginIsRetriedAfterTheBackoff() throws Exception {
+        CountingLoader loader = new CountingLoader(null);
+        AdminTicketCache cache = new AdminTicketCache(loader, 60000, 50);
+
+        assertNull(cache.getTicket());
+        Thread.sleep(100);
+        loader.ticket = "TICKET";
+        assertEquals("TICKET", cache.getTicket());
+        assertEquals(2, loader.calls.get());
+    }
+
+    @Test
+    public void failedLoginIsNotRetriedDuringTheBackoff() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        AdminTicketCache cache = new AdminTicketCache(new AdminTicketCache.TicketLoader() {
+            @Override
+            public String loadTicket() throws IOException {
+                calls.incrementAndGet();
+                throw new IOException("Connection refused");
+            }
+        }, 60000, 60000);
+
+        try {
+            cache.getTicket();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertNull(cache.getTicket());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void openBreakerIsPassedOnWithoutBackoff() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        AdminTicketCache cache = new AdminTicketCache(new AdminTicketCache.TicketLoader() {
+            @Override
+            public String loadTicket() throws IOException {
+                calls.incrementAndGet();
+                throw new BackendUnavailableException("Repository unavailable", 30);
+            }
+        }, 60000, 60000);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getTicket();
+                fail("The breaker exception must not be swallowed");
+            } catch (BackendUnavailableException e) {
+                assertEquals(30, e.getRetryAfterSeconds());
+            }
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void queuedThreadsShareARefusedLogin() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final AdminTicketCache cache = new AdminTicketCache(new AdminTicketCache.TicketLoader() {
+            @Override
+            public String loadTicket() throws IOException {
+                calls.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        }, 60000, 60000);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cache.getTicket();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        loading.await();
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    private static final class CountingLoader implements AdminTicketCache.TicketLoader {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile String ticket;
+
+        private CountingLoader(String ticket) {
+            this.ticket = ticket;
+        }
+
+        @Override
+        public String loadTicket() {
+            calls.incrementAndGet();
+            return ticket;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CharTrieTest {
+
+    @Test
+    public void forwardTrieMatchesPrefixesOfTheRegion() {
+        CharTrie trie = new CharTrie(false, false);
+        trie.add("/res/");
+        trie.add("/proxy/");
+
+        assertTrue(trie.matches("/share/res/x", 6, 12));
+        assertFalse(trie.matches("/share/res/x", 0, 12));
+        assertFalse(trie.matches("/res", 0, 4));
+        assertFalse(trie.matches("/RES/x", 0, 6));
+    }
+
+    @Test
+    public void reversedTrieMatchesSuffixesOfTheRegion() {
+        CharTrie trie = new CharTrie(true, false);
+        trie.add(".css");
+
+        assertTrue(trie.matches("/x.css;jsessionid=1", 0, 6));
+        assertFalse(trie.matches("/x.css;jsessionid=1", 0, 19));
+    }
+
+    @Test
+    public void ignoreCaseComparesLowerCase() {
+        CharTrie trie = new CharTrie(true, true);
+        trie.add("Example.com");
+
+        assertTrue(trie.matches("mail.EXAMPLE.COM", 0, 16));
+        assertFalse(trie.matches("example.org", 0, 11));
+    }
+
+    @Test
+    public void longestMatchPrefersTheLongestKey() {
+        CharTrie trie = new CharTrie(true, true);
+        trie.add(".com");
+        trie.add("example.com");
+
+        assertEquals(11, trie.longestMatch("a.example.com", 0, 13));
+        assertEquals(4, trie.longestMatch("other.com", 0, 9));
+        assertEquals(-1, trie.longestMatch("example.org", 0, 11));
+    }
+
+    @Test
+    public void emptyKeyMatchesEverything() {
+        CharTrie trie = new CharTrie(false, false);
+        assertTrue(trie.isEmpty());
+
+        trie.add("");
+
+        assertFalse(trie.isEmpty());
+        assertTrue(trie.matches("anything", 0, 8));
+        assertEquals(0, trie.longestMatch("anything", 0, 8));
+    }
+}
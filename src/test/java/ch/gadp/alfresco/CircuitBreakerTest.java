@@ -0,0 +1,133 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 100;
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.acquire();
+        assertFalse(breaker.isOpen());
+
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        try {
+            breaker.acquire();
+            fail("The circuit should be open");
+        } catch (BackendUnavailableException e) {
+            assertEquals(60, e.getRetryAfterSeconds());
+        }
+    }
+
+    @Test
+    public void successResetsTheFailureCount() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 60000);
+
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+    }
+
+    @Test
+    public void halfOpenLetsASingleTrialThrough() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+        Thread.sleep(OPEN_MILLIS * 2);
+
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+        try {
+            breaker.acquire();
+            fail("Only one trial call should be let through");
+        } catch (BackendUnavailableException e) {
+            assertEquals(1, e.getRetryAfterSeconds());
+        }
+    }
+
+    @Test
+    public void successfulTrialClosesTheCircuit() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+        Thread.sleep(OPEN_MILLIS * 2);
+
+        breaker.acquire();
+        breaker.recordSuccess();
+
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+        breaker.acquire();
+        // The failure count starts again from zero
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void failedTrialOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+        Thread.sleep(OPEN_MILLIS * 2);
+
+        breaker.acquire();
+        breaker.recordFailure();
+
+        assertTrue(breaker.isOpen());
+        try {
+            breaker.acquire();
+            fail("The circuit should be open again");
+        } catch (BackendUnavailableException e) {
+            // Expected
+        }
+
+        // A new trial once the open time elapsed again
+        Thread.sleep(OPEN_MILLIS * 2);
+        breaker.acquire();
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void zeroThresholdDisablesTheBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0, 60000);
+
+        for (int i = 0; i < 10; i++) {
+            breaker.recordFailure();
+        }
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, OPEN_MILLIS);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        return breaker;
+    }
+}
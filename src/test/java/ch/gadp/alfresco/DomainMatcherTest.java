@@ -0,0 +1,107 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DomainMatcherTest {
+
+    @Test
+    public void anyDomainWhenBlank() {
+        DomainMatcher matcher = new DomainMatcher(" ");
+
+        assertTrue(matcher.isValid("john.doe@example.com"));
+        assertTrue(matcher.isValid("john@other.org"));
+        assertFalse(matcher.isValid(null));
+        assertFalse(matcher.isValid(""));
+    }
+
+    @Test
+    public void exactAndWildcardDomains() {
+        DomainMatcher matcher = new DomainMatcher("example.com, *.example.org");
+
+        assertTrue(matcher.isValid("john@example.com"));
+        assertTrue(matcher.isValid("john@EXAMPLE.Com"));
+        assertFalse(matcher.isValid("john@sub.example.com"));
+        assertFalse(matcher.isValid("john@example.com.evil.net"));
+        assertFalse(matcher.isValid("john@badexample.com"));
+        assertTrue(matcher.isValid("john@sub.example.org"));
+        assertTrue(matcher.isValid("john@a.b.example.org"));
+        assertFalse(matcher.isValid("john@example.org"));
+        assertFalse(matcher.isValid("john@badexample.org"));
+    }
+
+    @Test
+    public void localPartIsADotAtom() {
+        DomainMatcher matcher = new DomainMatcher("example.com");
+
+        assertTrue(matcher.isValid("a@example.com"));
+        assertTrue(matcher.isValid("john.doe@example.com"));
+        assertTrue(matcher.isValid("john+tag@example.com"));
+        assertTrue(matcher.isValid("!#$%&'*+-/=?^_`{|}~@example.com"));
+        assertTrue(matcher.isValid("o'neil.j_doe-1@example.com"));
+
+        assertFalse(matcher.isValid(".john@example.com"));
+        assertFalse(matcher.isValid("john.@example.com"));
+        assertFalse(matcher.isValid("john..doe@example.com"));
+        assertFalse(matcher.isValid("\"john doe\"@example.com"));
+        assertFalse(matcher.isValid("john\"doe@example.com"));
+        assertFalse(matcher.isValid("john(doe)@example.com"));
+        assertFalse(matcher.isValid("john,doe@example.com"));
+        assertFalse(matcher.isValid("john;doe@example.com"));
+        assertFalse(matcher.isValid("john:doe@example.com"));
+        assertFalse(matcher.isValid("john<doe>@example.com"));
+        assertFalse(matcher.isValid("john[doe]@example.com"));
+        assertFalse(matcher.isValid("john\\doe@example.com"));
+        assertFalse(matcher.isValid("jöhn@example.com"));
+        assertFalse(matcher.isValid("john doe@example.com"));
+        assertFalse(matcher.isValid("john\tdoe@example.com"));
+    }
+
+    @Test
+    public void allowedDomains() {
+        DomainMatcher matcher = new DomainMatcher("example.com, *.example.org");
+
+        assertTrue(matcher.isAllowedDomain("example.com"));
+        assertTrue(matcher.isAllowedDomain("Example.COM"));
+        assertTrue(matcher.isAllowedDomain("sub.example.org"));
+        assertFalse(matcher.isAllowedDomain("example.org"));
+        assertFalse(matcher.isAllowedDomain("other.com"));
+        assertFalse(matcher.isAllowedDomain(null));
+        assertTrue(new DomainMatcher("").isAllowedDomain("other.com"));
+    }
+
+    @Test
+    public void malformedAddresses() {
+        DomainMatcher matcher = new DomainMatcher("");
+
+        assertFalse(matcher.isValid("john"));
+        assertFalse(matcher.isValid("@example.com"));
+        assertFalse(matcher.isValid("john@"));
+        assertFalse(matcher.isValid("john@@example.com"));
+        assertFalse(matcher.isValid("john@doe@example.com"));
+        assertFalse(matcher.isValid("john@.example.com"));
+        assertFalse(matcher.isValid("john@example..com"));
+        assertFalse(matcher.isValid("john@example.com."));
+        assertFalse(matcher.isValid("john@exa_mple.com"));
+        assertFalse(matcher.isValid("john@example.com "));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IdTokenVerifierTest {
+
+    private static final String CLIENT_ID = "test.apps.googleusercontent.com";
+
+    private LocalBackendStub stub;
+    private IdTokenVerifier verifier;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new LocalBackendStub(0, "example.com");
+        stub.start();
+        verifier = new IdTokenVerifier(new IdTokenVerifier.KeyResolver() {
+            @Override
+            public PublicKey getKey(String keyId) {
+                return stub.getPublicKey(keyId);
+            }
+        }, Arrays.asList(LocalBackendStub.ISSUER, "accounts.google.com"), CLIENT_ID, 60);
+    }
+
+    @After
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Test
+    public void validTokenIsAccepted() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.hostedDomain = "example.com";
+
+        IdTokenClaims verified = verifier.verify(sign(claims));
+
+        assertNotNull(verified);
+        assertEquals("john@example.com", verified.email);
+        assertTrue(verified.emailVerified);
+        GoogleProfileInfo profile = verified.toProfile();
+        assertEquals("john@example.com", profile.getEmail());
+        assertEquals("Stub", profile.getGiven_name());
+        assertEquals("example.com", profile.getHd());
+    }
+
+    @Test
+    public void tokenOfAPreviousKeyIsAccepted() throws IOException {
+        String token = sign(claims());
+        stub.rotateSigningKey();
+
+        assertNotNull(verifier.verify(token));
+    }
+
+    @Test
+    public void tamperedPayloadIsRejected() throws IOException {
+        String[] parts = sign(claims()).split("\\.");
+        IdTokenClaims forged = claims();
+        forged.email = "admin@example.com";
+        String token = parts[0] + "." + Base64Url.encode(StubJson.GSON.toJson(forged).getBytes("UTF-8")) + "." + parts[2];
+
+        assertNull(verifier.verify(token));
+    }
+
+    @Test
+    public void tamperedSignatureIsRejected() throws IOException {
+        String token = sign(claims());
+        char last = token.charAt(token.length() - 2);
+        token = token.substring(0, token.length() - 2) + (last == 'A' ? 'B' : 'A') + token.charAt(token.length() - 1);
+
+        assertNull(verifier.verify(token));
+    }
+
+    @Test
+    public void unsignedTokenIsRejected() throws IOException {
+        String unsigned = encode("{\"alg\":\"none\",\"typ\":\"JWT\"}") + "." + encode(StubJson.GSON.toJson(claims()));
+
+        assertNull(verifier.verify(unsigned + "."));
+        assertNull(verifier.verify(unsigned + ".c2lnbmF0dXJl"));
+    }
+
+    @Test
+    public void noneAlgorithmWithAValidSignatureIsRejected() throws IOException {
+        assertNull(verifier.verify(stub.signIdToken("{\"alg\":\"none\",\"kid\":\"" + stub.getSigningKeyId() + "\"}", claims())));
+    }
+
+    @Test
+    public void hmacSignedWithThePublicKeyIsRejected() throws Exception {
+        // Algorithm confusion: an HS256 token keyed with the public key, which anybody can download
+        String keyId = stub.getSigningKeyId();
+        String signed = encode("{\"alg\":\"HS256\",\"kid\":\"" + keyId + "\",\"typ\":\"JWT\"}") + "." +
+                encode(StubJson.GSON.toJson(claims()));
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(stub.getPublicKey(keyId).getEncoded(), "HmacSHA256"));
+
+        assertNull(verifier.verify(signed + "." + Base64Url.encode(mac.doFinal(Base64Url.ascii(signed)))));
+    }
+
+    @Test
+    public void otherAudienceIsRejected() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.audience.clear();
+        claims.audience.add("other.apps.googleusercontent.com");
+
+        assertNull(verifier.verify(sign(claims)));
+    }
+
+    @Test
+    public void audienceArrayContainingTheClientIsAccepted() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.audience.add(0, "other.apps.googleusercontent.com");
+
+        assertNotNull(verifier.verify(sign(claims)));
+    }
+
+    @Test
+    public void otherIssuerIsRejected() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.issuer = "https://evil.example.com";
+
+        assertNull(verifier.verify(sign(claims)));
+    }
+
+    @Test
+    public void expiredTokenIsRejected() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.issuedAt -= 7200;
+        claims.expiresAt = claims.issuedAt + 3600;
+
+        assertNull(verifier.verify(sign(claims)));
+    }
+
+    @Test
+    public void expiryWithinTheClockSkewIsAccepted() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.expiresAt = System.currentTimeMillis() / 1000 - 30;
+
+        assertNotNull(verifier.verify(sign(claims)));
+    }
+
+    @Test
+    public void tokenIssuedInTheFutureIsRejected() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.issuedAt += 600;
+        claims.expiresAt += 600;
+
+        assertNull(verifier.verify(sign(claims)));
+    }
+
+    @Test
+    public void unknownKeyIsRejected() throws IOException {
+        assertNull(verifier.verify(stub.signIdToken(LocalBackendStub.idTokenHeader("unknown-key"), claims())));
+    }
+
+    @Test
+    public void unverifiedEmailIsLeftToTheFilter() throws IOException {
+        IdTokenClaims claims = claims();
+        claims.emailVerified = false;
+
+        IdTokenClaims verified = verifier.verify(sign(claims));
+        assertNotNull(verified);
+        assertFalse(verified.toProfile().isVerified_email());
+    }
+
+    @Test
+    public void malformedTokensAreRejected() throws IOException {
+        assertNull(verifier.verify(""));
+        assertNull(verifier.verify("abc"));
+        assertNull(verifier.verify("abc.def"));
+        assertNull(verifier.verify("a.b.c.d"));
+        assertNull(verifier.verify("!!!.???.***"));
+        assertNull(verifier.verify(encode("not json") + "." + encode("{}") + ".c2ln"));
+        assertNull(verifier.verify(encode("{\"alg\":\"RS256\"}") + "." + encode("[1,2]") + ".c2ln"));
+    }
+
+    @Test
+    public void keyLoadingFailureIsThrown() {
+        IdTokenVerifier failing = new IdTokenVerifier(new IdTokenVerifier.KeyResolver() {
+            @Override
+            public PublicKey getKey(String keyId) throws IOException {
+                throw new IOException("Connection refused");
+            }
+        }, Arrays.asList(LocalBackendStub.ISSUER), CLIENT_ID, 60);
+
+        try {
+            failing.verify(sign(claims()));
+            fail("The key loading failure should be thrown");
+        } catch (IOException e) {
+            assertEquals("Connection refused", e.getMessage());
+        }
+    }
+
+    @Test
+    public void idTokenIsReadFromTheTokenAnswer() {
+        assertEquals("a.b.c", IdTokenVerifier.getIdToken("{\"access_token\":\"x\",\"expires_in\":3600,\"id_token\":\"a.b.c\"}"));
+        assertNull(IdTokenVerifier.getIdToken("{\"access_token\":\"x\"}"));
+        assertNull(IdTokenVerifier.getIdToken("access_token=x&expires=3600"));
+        assertNull(IdTokenVerifier.getIdToken(null));
+    }
+
+    private IdTokenClaims claims() {
+        return stub.idTokenClaims("john", CLIENT_ID);
+    }
+
+    private String sign(IdTokenClaims claims) throws IOException {
+        return stub.signIdToken(LocalBackendStub.idTokenHeader(stub.getSigningKeyId()), claims);
+    }
+
+    private static String encode(String json) throws IOException {
+        return Base64Url.encode(json.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonAdaptersTest {
+
+    @Test
+    public void profileIgnoresUnknownMembers() {
+        GoogleProfileInfo profile = JsonAdapters.GSON.fromJson("{\"id\":\"1\",\"email\":\"john@example.com\"," +
+                "\"extra\":{\"nested\":[1,2]},\"verified_email\":\"true\",\"hd\":null}", GoogleProfileInfo.class);
+
+        assertEquals("1", profile.getId());
+        assertEquals("john@example.com", profile.getEmail());
+        assertTrue(profile.isVerified_email());
+        assertNull(profile.getHd());
+    }
+
+    @Test
+    public void ticketIsReadFromTheDataObject() {
+        TicketInfo ticket = JsonAdapters.GSON.fromJson("{\"data\":{\"ticket\":\"TICKET_1\",\"other\":1}}", TicketInfo.class);
+
+        assertEquals("TICKET_1", ticket.data.ticket);
+    }
+
+    @Test
+    public void audienceMayBeAnArray() {
+        IdTokenClaims single = JsonAdapters.GSON.fromJson("{\"aud\":\"a\",\"email_verified\":false}", IdTokenClaims.class);
+        IdTokenClaims array = JsonAdapters.GSON.fromJson("{\"aud\":[\"a\",\"b\"],\"exp\":10}", IdTokenClaims.class);
+
+        assertEquals(1, single.audience.size());
+        assertFalse(single.emailVerified);
+        assertEquals(2, array.audience.size());
+        assertEquals("b", array.audience.get(1));
+        assertEquals(10, array.expiresAt);
+    }
+
+    @Test
+    public void stubDocumentsAreReadBack() {
+        IdTokenClaims claims = new IdTokenClaims();
+        claims.issuer = LocalBackendStub.ISSUER;
+        claims.audience.add("client");
+        claims.email = "john@example.com";
+        claims.emailVerified = true;
+        claims.hostedDomain = "example.com";
+
+        IdTokenClaims read = JsonAdapters.GSON.fromJson(StubJson.GSON.toJson(claims), IdTokenClaims.class);
+
+        assertEquals(LocalBackendStub.ISSUER, read.issuer);
+        assertEquals("client", read.audience.get(0));
+        assertTrue(read.emailVerified);
+        assertEquals("example.com", read.hostedDomain);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void adaptersAreReadOnly() {
+        JsonAdapters.GSON.toJson(new PersonInfo());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonRequestEntityTest {
+
+    @Test
+    public void emptyObject() throws IOException {
+        JsonRequestEntity entity = new JsonRequestEntity();
+
+        assertTrue(entity.isEmpty());
+        assertEquals("{}", written(entity));
+    }
+
+    @Test
+    public void plainProperties() throws IOException {
+        JsonObject json = roundTrip(new JsonRequestEntity()
+                .property("userName", "john.doe@example.com")
+                .property("firstName", "John"));
+
+        assertEquals(2, json.entrySet().size());
+        assertEquals("john.doe@example.com", json.get("userName").getAsString());
+        assertEquals("John", json.get("firstName").getAsString());
+    }
+
+    @Test
+    public void quotesAndBackslashes() throws IOException {
+        String value = "say \"hi\" to C:\\Users\\\"john\"\\";
+
+        assertEquals(value, roundTrip(new JsonRequestEntity().property("a\"b\\c", value)).get("a\"b\\c").getAsString());
+    }
+
+    @Test
+    public void controlCharacters() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            value.append(c);
+        }
+        value.append('\u007f');
+        JsonRequestEntity entity = new JsonRequestEntity().property("control", value.toString());
+
+        for (byte b : entity.toByteArray()) {
+            assertTrue("Raw control character " + b, b < 0 || b >= 0x20);
+        }
+        assertEquals(value.toString(), roundTrip(entity).get("control").getAsString());
+    }
+
+    @Test
+    public void javaScriptLineSeparatorsAreEscaped() throws IOException {
+        String value = "line\u2028paragraph\u2029end";
+        JsonRequestEntity entity = new JsonRequestEntity().property("separators", value);
+
+        String json = written(entity);
+        assertFalse(json.contains("\u2028"));
+        assertFalse(json.contains("\u2029"));
+        assertTrue(json.contains("\\u2028"));
+        assertTrue(json.contains("\\u2029"));
+        assertEquals(value, roundTrip(entity).get("separators").getAsString());
+    }
+
+    @Test
+    public void multiByteCharacters() throws IOException {
+        // Two, three and four (surrogate pair) byte UTF-8 sequences
+        String value = "Zo\u00eb \u20ac \ud83d\ude00 \ud801\udc37";
+        JsonRequestEntity entity = new JsonRequestEntity().property("name", value);
+
+        assertArrayEquals(("{\"name\":\"" + value + "\"}").getBytes("UTF-8"), entity.toByteArray());
+        assertEquals(value, roundTrip(entity).get("name").getAsString());
+    }
+
+    @Test
+    public void unpairedSurrogatesAreReplaced() throws IOException {
+        JsonObject json = roundTrip(new JsonRequestEntity()
+                .property("high", "a\ud83db")
+                .property("low", "a\ude00b")
+                .property("trailing", "a\ud83d")
+                .property("reversed", "\ude00\ud83d"));
+
+        assertEquals("a?b", json.get("high").getAsString());
+        assertEquals("a?b", json.get("low").getAsString());
+        assertEquals("a?", json.get("trailing").getAsString());
+        assertEquals("??", json.get("reversed").getAsString());
+    }
+
+    @Test
+    public void nullValues() throws IOException {
+        JsonObject json = roundTrip(new JsonRequestEntity()
+                .property("email", null)
+                .property("firstName", "John"));
+
+        assertTrue(json.has("email"));
+        assertTrue(json.get("email").isJsonNull());
+        assertEquals("John", json.get("firstName").getAsString());
+    }
+
+    @Test
+    public void contentLengthMatchesTheWrittenBytes() throws IOException {
+        JsonRequestEntity entity = new JsonRequestEntity()
+                .property("userName", "zo\u00eb@example.com")
+                .property("organization", "\u20ac\ud83d\ude00\"\\\n\u2028");
+        // Past the initial buffer so that it grows
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            large.append("\u00e9\"");
+        }
+        entity.property("jobtitle", large.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        assertEquals(out.size(), entity.getContentLength());
+        assertArrayEquals(out.toByteArray(), entity.toByteArray());
+        assertTrue(entity.isRepeatable());
+        assertEquals("application/json; charset=utf-8", entity.getContentType());
+        assertEquals(large.toString(), roundTrip(entity).get("jobtitle").getAsString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedEntityRejectsProperties() {
+        JsonRequestEntity entity = new JsonRequestEntity().property("a", "b");
+        entity.toByteArray();
+        entity.property("c", "d");
+    }
+
+    private static String written(JsonRequestEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static JsonObject roundTrip(JsonRequestEntity entity) throws UnsupportedEncodingException {
+        return new JsonParser().parse(new String(entity.toByteArray(), "UTF-8")).getAsJsonObject();
+    }
+}
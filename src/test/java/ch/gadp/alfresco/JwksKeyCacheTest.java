@@ -0,0 +1,203 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.PublicKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JwksKeyCacheTest {
+
+    private static final long WAIT_MILLIS = 5000;
+
+    private LocalBackendStub stub;
+    private JwksKeyCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new LocalBackendStub(0, "example.com");
+        stub.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.shutdown();
+        }
+        stub.stop();
+    }
+
+    @Test
+    public void keySetIsRefreshedInTheBackgroundBeforeItsMaxAge() throws Exception {
+        stub.setJwksMaxAge(1);
+        cache = newCache(200);
+        cache.start();
+        waitForKeys();
+        assertNotNull(cache.getKey(stub.getSigningKeyId()));
+
+        // Refreshed at 90% of the one second max-age, without any login asking for a key
+        waitForJwksRequests(3);
+    }
+
+    @Test
+    public void unknownKeyLoadsTheKeySetOnDemand() throws Exception {
+        cache = newCache(60000);
+        cache.start();
+        waitForKeys();
+        String oldKeyId = stub.getSigningKeyId();
+
+        String newKeyId = stub.rotateSigningKey();
+        PublicKey key = cache.getKey(newKeyId);
+
+        assertNotNull(key);
+        assertEquals(2, stub.getRequestCount("jwks"));
+        assertSame(key, cache.getKey(newKeyId));
+        assertNotNull(cache.getKey(oldKeyId));
+        assertEquals(2, stub.getRequestCount("jwks"));
+    }
+
+    @Test
+    public void secondUnknownKeyWithinTheRefetchIntervalIsNotLoaded() throws Exception {
+        cache = newCache(60000);
+        cache.start();
+        waitForKeys();
+
+        assertNotNull(cache.getKey(stub.rotateSigningKey()));
+        assertEquals(2, stub.getRequestCount("jwks"));
+
+        assertNull(cache.getKey(stub.rotateSigningKey()));
+        assertNull(cache.getKey("forged-key"));
+        assertEquals(2, stub.getRequestCount("jwks"));
+    }
+
+    @Test
+    public void unknownKeyIsLoadedAgainAfterTheRefetchInterval() throws Exception {
+        cache = newCache(200);
+        cache.start();
+        waitForKeys();
+        assertNull(cache.getKey("forged-key"));
+
+        String keyId = stub.rotateSigningKey();
+        Thread.sleep(300);
+        assertNotNull(cache.getKey(keyId));
+    }
+
+    @Test
+    public void staleKeysAreServedWhileTheProviderFails() throws Exception {
+        stub.setJwksMaxAge(1);
+        cache = newCache(200);
+        cache.start();
+        waitForKeys();
+        String keyId = stub.getSigningKeyId();
+        PublicKey key = cache.getKey(keyId);
+        int size = cache.size();
+
+        stub.setErrorRate(1.0);
+        long requests = stub.getRequestCount("jwks");
+        // Past the max-age: the background refresh keeps failing
+        waitForJwksRequests(requests + 3);
+        assertTrue(stub.getErrorCount() >= 3);
+
+        assertSame(key, cache.getKey(keyId));
+        assertEquals(size, cache.size());
+
+        stub.setErrorRate(0);
+        String newKeyId = stub.rotateSigningKey();
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (cache.getKey(newKeyId) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertNotNull(cache.getKey(newKeyId));
+    }
+
+    @Test
+    public void maxAgeIsReadFromCacheControl() {
+        assertEquals(21600000L, JwksKeyCache.getMaxAge("public, max-age=21600, must-revalidate, no-transform", 1000));
+        assertEquals(60000L, JwksKeyCache.getMaxAge("max-age=\"60\"", 1000));
+        assertEquals(1000L, JwksKeyCache.getMaxAge("no-cache", 1000));
+        assertEquals(1000L, JwksKeyCache.getMaxAge("s-max-age=60", 1000));
+        assertEquals(1000L, JwksKeyCache.getMaxAge(null, 1000));
+    }
+
+    @Test
+    public void keysOfOtherTypesAreIgnored() {
+        assertEquals(0, JwksKeyCache.parse("{\"keys\":[{\"kid\":\"a\",\"kty\":\"EC\",\"crv\":\"P-256\",\"x\":\"AA\",\"y\":\"AA\"}," +
+                "{\"kid\":\"b\",\"kty\":\"RSA\",\"use\":\"enc\",\"n\":\"AQAB\",\"e\":\"AQAB\"}]}").size());
+        assertEquals(0, JwksKeyCache.parse("not json").size());
+    }
+
+    private JwksKeyCache newCache(long refetchIntervalMillis) {
+        return new JwksKeyCache(new JwksKeyCache.KeySetLoader() {
+            @Override
+            public JwksKeyCache.KeySetResponse loadKeySet() throws IOException {
+                HttpURLConnection connection = (HttpURLConnection) new URL(stub.getJwksUri()).openConnection();
+                try {
+                    if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                        return null;
+                    }
+                    return new JwksKeyCache.KeySetResponse(read(connection.getInputStream()),
+                            connection.getHeaderField("Cache-Control"));
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        }, 3600000L, refetchIntervalMillis);
+    }
+
+    private void waitForKeys() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (cache.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, stub.getRequestCount("jwks"));
+        assertEquals(1, cache.size());
+    }
+
+    private void waitForJwksRequests(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (stub.getRequestCount("jwks") < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue("Expected " + count + " key set requests, got " + stub.getRequestCount("jwks"),
+                stub.getRequestCount("jwks") >= count);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(body.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,693 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP server standing in for Google and the Alfresco repository, so that the whole callback flow
+ * can run on one machine without network access.
+ * It serves the OAuth2 token endpoint, the oauth2/v1/userinfo profile and the repository login and people APIs.
+ * When id tokens are enabled, the token endpoint also returns an RS256 signed OpenID Connect id_token whose key
+ * is published on the oauth2/v3/certs endpoint, along with the key used before the last rotation.
+ * The authorization code tells which user logs in: the part before an optional "~" is the user name, so that
+ * "jdoe~1" and "jdoe~2" are two logins of jdoe@[domain].
+ * Latency, error rate and profile size can be changed while the server runs.
+ * Run the main method to use it from a Share started with the webapp profile.
+ */
+public class LocalBackendStub {
+
+    public static final String TOKEN_PATH = "/o/oauth2/token";
+    public static final String USERINFO_PATH = "/oauth2/v1/userinfo";
+    public static final String JWKS_PATH = "/oauth2/v3/certs";
+    public static final String ISSUER = "https://accounts.google.com";
+    public static final String REPOSITORY_API = "/alfresco/service/api";
+
+    private static final String ACCESS_TOKEN_PREFIX = "stub-token-";
+    private static final String TICKET_PARAMETER = "alf_ticket=";
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String domain;
+
+    private final Map<String, PersonInfo> people = new ConcurrentHashMap<String, PersonInfo>();
+    private final Set<Integer> remotePorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final ConcurrentHashMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong ticketCount = new AtomicLong();
+    private final Random random = new Random();
+    private final AtomicInteger keyCount = new AtomicInteger();
+    private volatile StubKey signingKey;
+    private volatile StubKey previousKey;
+    // Signing costs milliseconds of the CPU shared with the filter, so each user's token is reused for a while
+    private final ConcurrentHashMap<String, SignedToken> idTokenCache = new ConcurrentHashMap<String, SignedToken>();
+
+    private volatile int providerLatency;
+    private volatile int repositoryLatency;
+    private volatile double errorRate;
+    private volatile int profileSize;
+    private volatile boolean idTokens;
+    private volatile int jwksMaxAge = 3600;
+    private volatile String hostedDomain;
+    private volatile boolean peopleReadOnly;
+    private volatile boolean emailVerified = true;
+
+    /**
+     * @param port The port to listen to on the loopback interface, 0 for any free port
+     * @param domain The email domain of the users
+     * @throws IOException If the server cannot be bound
+     */
+    public LocalBackendStub(int port, String domain) throws IOException {
+        this.domain = domain;
+        this.signingKey = newKey();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LocalBackendStub");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server.setExecutor(this.executor);
+
+        this.server.createContext(TOKEN_PATH, new StubHandler("token", true) {
+            @Override
+            void handle(HttpExchange exchange, String path, String query) throws IOException {
+                String body = new String(readBody(exchange), "UTF-8");
+                String code = QueryStrings.getParameter(body, "code");
+                if (code == null) {
+                    send(exchange, 400, "{\"error\":\"invalid_request\"}");
+                    return;
+                }
+                String idToken = "";
+                if (idTokens) {
+                    idToken = ",\"id_token\":\"" + cachedIdToken(userName(code), QueryStrings.getParameter(body, "client_id")) + "\"";
+                }
+                send(exchange, 200, "{\"access_token\":\"" + ACCESS_TOKEN_PREFIX + code + "\"," +
+                        "\"token_type\":\"Bearer\",\"expires_in\":3600" + idToken + "}");
+            }
+        });
+
+        this.server.createContext(USERINFO_PATH, new StubHandler("userinfo", true) {
+            @Override
+            void handle(HttpExchange exchange, String path, String query) throws IOException {
+                String token = QueryStrings.getParameter(query, "access_token");
+                String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                if (token == null && authorization != null && authorization.startsWith("Bearer ")) {
+                    token = authorization.substring("Bearer ".length());
+                }
+                if (token == null || !token.startsWith(ACCESS_TOKEN_PREFIX)) {
+                    send(exchange, 401, "{\"error\":\"invalid_token\"}");
+                    return;
+                }
+                String userName = userName(token.substring(ACCESS_TOKEN_PREFIX.length()));
+                send(exchange, 200, pad(StubJson.GSON.toJson(profile(userName))));
+            }
+        });
+
+        this.server.createContext(JWKS_PATH, new StubHandler("jwks", true) {
+            @Override
+            void handle(HttpExchange exchange, String path, String query) throws IOException {
+                JsonWebKeys keys = new JsonWebKeys();
+                keys.keys.add(signingKey.toJsonWebKey());
+                StubKey previous = previousKey;
+                if (previous != null) {
+                    keys.keys.add(previous.toJsonWebKey());
+                }
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=" + jwksMaxAge + ", must-revalidate, no-transform");
+                send(exchange, 200, StubJson.GSON.toJson(keys));
+            }
+        });
+
+        this.server.createContext(REPOSITORY_API + "/login", new StubHandler("login", false) {
+            @Override
+            void handle(HttpExchange exchange, String path, String query) throws IOException {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, "{}");
+                    return;
+                }
+                readBody(exchange);
+                send(exchange, 200, "{\"data\":{\"ticket\":\"TICKET_" + ticketCount.incrementAndGet() + "\"}}");
+            }
+        });
+
+        this.server.createContext(REPOSITORY_API + "/people", new StubHandler("people", false) {
+            @Override
+            void handle(HttpExchange exchange, String path, String query) throws IOException {
+                if (query == null || !query.contains(TICKET_PARAMETER)) {
+                    send(exchange, 401, "{}");
+                    return;
+                }
+                String prefix = REPOSITORY_API + "/people";
+                String userName = path.length() > prefix.length() + 1 ? path.substring(prefix.length() + 1) : null;
+                String method = exchange.getRequestMethod();
+
+                if ("GET".equals(method) && userName != null) {
+                    PersonInfo person = people.get(userName);
+                    if (person == null) {
+                        send(exchange, 404, "{}");
+                    } else {
+                        send(exchange, 200, pad(StubJson.GSON.toJson(person)));
+                    }
+                } else if ("POST".equals(method) && userName == null) {
+                    PersonInfo person = JsonAdapters.GSON.fromJson(new String(readBody(exchange), "UTF-8"), PersonInfo.class);
+                    if (person == null || person.getUserName() == null) {
+                        send(exchange, 400, "{}");
+                        return;
+                    }
+                    people.put(person.getUserName(), person);
+                    send(exchange, 200, StubJson.GSON.toJson(person));
+                } else if ("PUT".equals(method) && userName != null && peopleReadOnly) {
+                    send(exchange, 500, "{}");
+                } else if ("PUT".equals(method) && userName != null) {
+                    PersonInfo update = JsonAdapters.GSON.fromJson(new String(readBody(exchange), "UTF-8"), PersonInfo.class);
+                    PersonInfo person = people.get(userName);
+                    if (person == null) {
+                        send(exchange, 404, "{}");
+                        return;
+                    }
+                    if (update != null) {
+                        if (update.getFirstName() != null) {
+                            person.setFirstName(update.getFirstName());
+                        }
+                        if (update.getLastName() != null) {
+                            person.setLastName(update.getLastName());
+                        }
+                        if (update.getEmail() != null) {
+                            person.setEmail(update.getEmail());
+                        }
+                    }
+                    send(exchange, 200, StubJson.GSON.toJson(person));
+                } else {
+                    send(exchange, 405, "{}");
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts the server on a free port with the "example.com" users domain and prints the matching configuration.
+     * @param args Optional port
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        LocalBackendStub stub = new LocalBackendStub(args.length > 0 ? Integer.parseInt(args[0]) : 0, "example.com");
+        stub.start();
+        System.out.println("Local backend listening on port " + stub.getPort() + ", share-config-custom.xml values:");
+        System.out.println("  <repository> <protocol>http</protocol> <host>127.0.0.1</host> <port>" + stub.getPort() +
+                "</port> <api>" + REPOSITORY_API + "</api> <user-domains>example.com</user-domains>");
+        System.out.println("  <oauth-api> <uri>" + stub.getUserInfoUri() + "</uri> <token-uri>" + stub.getTokenUri() + "</token-uri>");
+        System.out.println("Log in by opening the Share page with ?code=<user name>");
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    public String getTokenUri() {
+        return "http://127.0.0.1:" + getPort() + TOKEN_PATH;
+    }
+
+    public String getUserInfoUri() {
+        return "http://127.0.0.1:" + getPort() + USERINFO_PATH;
+    }
+
+    public String getJwksUri() {
+        return "http://127.0.0.1:" + getPort() + JWKS_PATH;
+    }
+
+    /**
+     * Points a filter configuration at this server
+     * @param values The flat "section.name" configuration values to update
+     */
+    public void configure(Map<String, String> values) {
+        values.put(OAuthFilterConfiguration.REPOSITORY_PROTOCOL, "http");
+        values.put(OAuthFilterConfiguration.REPOSITORY_HOST, "127.0.0.1");
+        values.put(OAuthFilterConfiguration.REPOSITORY_PORT, Integer.toString(getPort()));
+        values.put(OAuthFilterConfiguration.REPOSITORY_API, REPOSITORY_API);
+        values.put(OAuthFilterConfiguration.USER_DOMAIN, this.domain);
+        values.put(OAuthFilterConfiguration.API_URI, getUserInfoUri());
+        values.put(OAuthFilterConfiguration.API_TOKEN_URI, getTokenUri());
+        values.put(OAuthFilterConfiguration.API_JWKS_URI, getJwksUri());
+    }
+
+    /**
+     * @param idTokens true to return a signed id_token with each access token, as Google does with the openid scope
+     */
+    public void setIdTokens(boolean idTokens) {
+        this.idTokens = idTokens;
+    }
+
+    /**
+     * @param hostedDomain The Google Workspace domain ("hd") of the profiles and id tokens, null for consumer accounts
+     */
+    public void setHostedDomain(String hostedDomain) {
+        this.hostedDomain = hostedDomain;
+        this.idTokenCache.clear();
+    }
+
+    /**
+     * @param emailVerified Whether the userinfo profile and the id_token claims say the email is verified
+     */
+    public void setEmailVerified(boolean emailVerified) {
+        this.emailVerified = emailVerified;
+        this.idTokenCache.clear();
+    }
+
+    /**
+     * @param seconds The max-age of the Cache-Control header sent with the key set
+     */
+    public void setJwksMaxAge(int seconds) {
+        this.jwksMaxAge = seconds;
+    }
+
+    /**
+     * Signs the next id tokens with a new key. The key set publishes the new key and the previous one
+     * @return The id of the new key
+     */
+    public String rotateSigningKey() {
+        StubKey key = newKey();
+        this.previousKey = this.signingKey;
+        this.signingKey = key;
+        this.idTokenCache.clear();
+        return key.id;
+    }
+
+    /**
+     * @param millis Delay added to each token and userinfo answer
+     */
+    public void setProviderLatency(int millis) {
+        this.providerLatency = millis;
+    }
+
+    /**
+     * @param millis Delay added to each repository answer
+     */
+    public void setRepositoryLatency(int millis) {
+        this.repositoryLatency = millis;
+    }
+
+    /**
+     * @param errorRate Fraction, between 0 and 1, of the requests answered with a 500 error
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param readOnly Whether the updates of existing users fail with a 500 error
+     */
+    public void setPeopleReadOnly(boolean readOnly) {
+        this.peopleReadOnly = readOnly;
+    }
+
+    /**
+     * @param bytes Minimum size of the userinfo and person documents, reached with an extra ignored property
+     */
+    public void setProfileSize(int bytes) {
+        this.profileSize = bytes;
+    }
+
+    /**
+     * @return The number of distinct client connections seen since the start
+     */
+    public int getConnectionCount() {
+        return this.remotePorts.size();
+    }
+
+    /**
+     * @param endpoint One of "token", "userinfo", "jwks", "login" or "people"
+     * @return The number of requests received by the endpoint
+     */
+    public long getRequestCount(String endpoint) {
+        AtomicLong count = this.requestCounts.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return The number of injected errors
+     */
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+
+    /**
+     * @return The number of users created in the repository
+     */
+    public int getPeopleCount() {
+        return this.people.size();
+    }
+
+    /**
+     * Adds a user to the repository, with the same names as the provider profile so that logging in does not update it
+     * @param userName The user name
+     */
+    public void addPerson(String userName) {
+        this.addPerson(userName, userName);
+    }
+
+    /**
+     * Adds a user to the repository, out of date with the provider profile unless the last name is the user name
+     * @param userName The user name
+     * @param lastName The last name stored in the repository
+     */
+    public void addPerson(String userName, String lastName) {
+        PersonInfo person = new PersonInfo();
+        person.setUserName(userName);
+        person.setFirstName("Stub");
+        person.setLastName(lastName);
+        person.setEmail(userName + "@" + this.domain);
+        this.people.put(userName, person);
+    }
+
+    /**
+     * Removes all the users from the repository
+     */
+    public void clearPeople() {
+        this.people.clear();
+    }
+
+    /**
+     * Forgets the counters
+     */
+    public void reset() {
+        this.remotePorts.clear();
+        this.requestCounts.clear();
+        this.errorCount.set(0);
+    }
+
+    private String userName(String code) {
+        int separator = code.indexOf('~');
+        return separator < 0 ? code : code.substring(0, separator);
+    }
+
+    private GoogleProfileInfo profile(String userName) {
+        GoogleProfileInfo profile = new GoogleProfileInfo();
+        profile.setId(Integer.toString(userName.hashCode() & Integer.MAX_VALUE));
+        profile.setEmail(userName + "@" + this.domain);
+        profile.setVerified_email(this.emailVerified);
+        profile.setGiven_name("Stub");
+        profile.setFamily_name(userName);
+        profile.setName("Stub " + userName);
+        profile.setLocale("en");
+        profile.setHd(this.hostedDomain);
+        return profile;
+    }
+
+    /**
+     * Gets a signed id_token for the user, signing a new one after a minute
+     */
+    private String cachedIdToken(String userName, String clientId) throws IOException {
+        String key = userName + '\u0000' + clientId;
+        SignedToken cached = this.idTokenCache.get(key);
+        long now = System.currentTimeMillis();
+        if (cached == null || cached.signedAt < now - 60000) {
+            cached = new SignedToken(idToken(userName, clientId), now);
+            this.idTokenCache.put(key, cached);
+        }
+        return cached.token;
+    }
+
+    /**
+     * Signs an id_token carrying the same profile as the userinfo endpoint
+     */
+    private String idToken(String userName, String clientId) throws IOException {
+        StubKey key = this.signingKey;
+        return signIdToken(key, idTokenHeader(key.id), idTokenClaims(userName, clientId));
+    }
+
+    /**
+     * @param userName The user name
+     * @param clientId The audience
+     * @return The claims of a valid id_token carrying the same profile as the userinfo endpoint
+     */
+    IdTokenClaims idTokenClaims(String userName, String clientId) {
+        GoogleProfileInfo profile = profile(userName);
+        IdTokenClaims claims = new IdTokenClaims();
+        claims.issuer = ISSUER;
+        claims.audience.add(clientId);
+        claims.issuedAt = System.currentTimeMillis() / 1000;
+        claims.expiresAt = claims.issuedAt + 3600;
+        claims.subject = profile.getId();
+        claims.email = profile.getEmail();
+        claims.emailVerified = profile.isVerified_email();
+        claims.name = profile.getName();
+        claims.givenName = profile.getGiven_name();
+        claims.familyName = profile.getFamily_name();
+        claims.locale = profile.getLocale();
+        claims.hostedDomain = profile.getHd();
+        return claims;
+    }
+
+    /**
+     * @param keyId The key id
+     * @return The header of an RS256 id_token signed with the key
+     */
+    static String idTokenHeader(String keyId) {
+        return "{\"alg\":\"RS256\",\"kid\":\"" + keyId + "\",\"typ\":\"JWT\"}";
+    }
+
+    /**
+     * Signs the header and the claims with the current signing key, whatever the header says
+     * @param header The JSON header
+     * @param claims The claims
+     * @return The compact serialized token
+     * @throws IOException
+     */
+    String signIdToken(String header, IdTokenClaims claims) throws IOException {
+        return signIdToken(this.signingKey, header, claims);
+    }
+
+    private static String signIdToken(StubKey key, String header, IdTokenClaims claims) throws IOException {
+        String signed = Base64Url.encode(header.getBytes("UTF-8")) +
+                "." + Base64Url.encode(StubJson.GSON.toJson(claims).getBytes("UTF-8"));
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(key.pair.getPrivate());
+            signature.update(Base64Url.ascii(signed));
+            return signed + "." + Base64Url.encode(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to sign the id_token: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The id of the key signing the id tokens
+     */
+    String getSigningKeyId() {
+        return this.signingKey.id;
+    }
+
+    /**
+     * @param keyId The key id
+     * @return The published key with this id, or null
+     */
+    PublicKey getPublicKey(String keyId) {
+        StubKey current = this.signingKey;
+        StubKey previous = this.previousKey;
+        if (current.id.equals(keyId)) {
+            return current.pair.getPublic();
+        }
+        return previous != null && previous.id.equals(keyId) ? previous.pair.getPublic() : null;
+    }
+
+    /**
+     * Drops the sign byte BigInteger adds to values whose high bit is set
+     */
+    private static byte[] unsigned(byte[] bytes) {
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] trimmed = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return bytes;
+    }
+
+    private String pad(String json) {
+        int missing = this.profileSize - json.length();
+        if (missing <= 0) {
+            return json;
+        }
+        StringBuilder padded = new StringBuilder(this.profileSize + 16);
+        padded.append(json, 0, json.length() - 1).append(",\"padding\":\"");
+        for (int i = 0; i < missing; i++) {
+            padded.append('x');
+        }
+        return padded.append("\"}").toString();
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Sends a JSON answer. Bodies are never empty: after an answer without body the JDK server closes the
+     * connection while still advertising keep-alive, and the pooled client then posts on a dead connection
+     */
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+        exchange.close();
+    }
+
+    private StubKey newKey() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return new StubKey("stub-key-" + this.keyCount.incrementAndGet(), generator.generateKeyPair());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("RSA is not available", e);
+        }
+    }
+
+    private static final class StubKey {
+        private final String id;
+        private final KeyPair pair;
+
+        private StubKey(String id, KeyPair pair) {
+            this.id = id;
+            this.pair = pair;
+        }
+
+        private JsonWebKeys.Key toJsonWebKey() {
+            RSAPublicKey publicKey = (RSAPublicKey) this.pair.getPublic();
+            JsonWebKeys.Key key = new JsonWebKeys.Key();
+            key.kid = this.id;
+            key.kty = "RSA";
+            key.alg = "RS256";
+            key.use = "sig";
+            key.n = Base64Url.encode(unsigned(publicKey.getModulus().toByteArray()));
+            key.e = Base64Url.encode(unsigned(publicKey.getPublicExponent().toByteArray()));
+            return key;
+        }
+    }
+
+    private static final class SignedToken {
+        private final String token;
+        private final long signedAt;
+
+        private SignedToken(String token, long signedAt) {
+            this.token = token;
+            this.signedAt = signedAt;
+        }
+    }
+
+    /**
+     * Counts the request, applies the latency and the error rate, then lets the endpoint answer
+     */
+    private abstract class StubHandler implements HttpHandler {
+
+        private final String endpoint;
+        private final boolean provider;
+
+        StubHandler(String endpoint, boolean provider) {
+            this.endpoint = endpoint;
+            this.provider = provider;
+        }
+
+        abstract void handle(HttpExchange exchange, String path, String query) throws IOException;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                remotePorts.add(exchange.getRemoteAddress().getPort());
+                counter().incrementAndGet();
+
+                int latency = this.provider ? providerLatency : repositoryLatency;
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                double rate = errorRate;
+                boolean failed;
+                synchronized (random) {
+                    failed = rate > 0 && random.nextDouble() < rate;
+                }
+                if (failed) {
+                    errorCount.incrementAndGet();
+                    send(exchange, 500, "{}");
+                    return;
+                }
+                handle(exchange, exchange.getRequestURI().getPath(), exchange.getRequestURI().getRawQuery());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+            } catch (RuntimeException e) {
+                send(exchange, 500, "{}");
+            }
+        }
+
+        private AtomicLong counter() {
+            AtomicLong count = requestCounts.get(this.endpoint);
+            if (count == null) {
+                count = new AtomicLong();
+                AtomicLong previous = requestCounts.putIfAbsent(this.endpoint, count);
+                if (previous != null) {
+                    count = previous;
+                }
+            }
+            return count;
+        }
+    }
+}
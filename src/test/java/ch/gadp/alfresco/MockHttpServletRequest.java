@@ -43,8 +43,10 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
     public Map<String, Object> attributes = new HashMap<String, Object>();
     public Map<String, Object> parameters = new HashMap<String, Object>();
+    public Map<String, String> headers = new HashMap<String, String>();
 
-    private HttpSession session = new MockHttpSession();
+    public HttpSession session = new MockHttpSession();
+    public Cookie[] cookies = null;
 
     /**
      * Returns the name of the authentication scheme used to protect
@@ -76,7 +78,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public Cookie[] getCookies() {
-        return new Cookie[0];  //To change body of implemented methods use File | Settings | File Templates.
+        return this.cookies;
     }
 
     /**
@@ -125,7 +127,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public String getHeader(String name) {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.headers.get(name);
     }
 
     /**
@@ -201,9 +203,11 @@ public class MockHttpServletRequest implements HttpServletRequest {
      * @return a <code>String</code> specifying the name of the method with
      *         which this request was made
      */
+    public String method = "GET";
+
     @Override
     public String getMethod() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.method;
     }
 
     /**
@@ -222,9 +226,11 @@ public class MockHttpServletRequest implements HttpServletRequest {
      *         query string in the request URL; or <code>null</code> if the URL does
      *         not have any extra path information
      */
+    public String pathInfo = null;
+
     @Override
     public String getPathInfo() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.pathInfo;
     }
 
     /**
@@ -257,9 +263,11 @@ public class MockHttpServletRequest implements HttpServletRequest {
      * @return a <code>String</code> specifying the portion of the request
      *         URI that indicates the context of the request
      */
+    public String contextPath = null;
+
     @Override
     public String getContextPath() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.contextPath;
     }
 
     /**
@@ -271,9 +279,11 @@ public class MockHttpServletRequest implements HttpServletRequest {
      *         <code>null</code> if the URL contains no query string. The value is not
      *         decoded by the container.
      */
+    public String queryString = null;
+
     @Override
     public String getQueryString() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.queryString;
     }
 
     /**
@@ -331,9 +341,11 @@ public class MockHttpServletRequest implements HttpServletRequest {
      *         <code>null</code> if the request did not specify a session ID
      * @see #isRequestedSessionIdValid
      */
+    public String requestedSessionId = null;
+
     @Override
     public String getRequestedSessionId() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.requestedSessionId;
     }
 
     /**
@@ -358,9 +370,11 @@ public class MockHttpServletRequest implements HttpServletRequest {
      *         from the protocol name up to the query string
      * @see javax.servlet.http.HttpUtils#getRequestURL
      */
+    public String requestURI = null;
+
     @Override
     public String getRequestURI() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.requestURI;
     }
 
     /**
@@ -378,6 +392,9 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public StringBuffer getRequestURL() {
+        if (this.requestURI != null) {
+            return new StringBuffer("http://my.server.com:8080").append(this.requestURI);
+        }
         return new StringBuffer("http://my.server.com:8080/alfresco");  //To change body of implemented methods use File | Settings | File Templates.
     }
 
@@ -396,9 +413,11 @@ public class MockHttpServletRequest implements HttpServletRequest {
      *         string if the servlet used to process the request is matched using the
      *         "/*" pattern.
      */
+    public String servletPath = null;
+
     @Override
     public String getServletPath() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.servletPath;
     }
 
     /**
@@ -424,7 +443,10 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public HttpSession getSession(boolean create) {
-        return this.getSession();
+        if (this.session == null && create) {
+            this.session = new MockHttpSession();
+        }
+        return this.session;
     }
 
     /**
@@ -436,7 +458,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public HttpSession getSession() {
-        return this.session;
+        return this.getSession(true);
     }
 
     /**
@@ -450,7 +472,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public boolean isRequestedSessionIdValid() {
-        return false;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.requestedSessionId != null;
     }
 
     /**
@@ -511,7 +533,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public Object getAttribute(String name) {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.attributes.get(name);
     }
 
     /**
@@ -806,7 +828,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public void setAttribute(String name, Object o) {
-        //To change body of implemented methods use File | Settings | File Templates.
+        this.attributes.put(name, o);
     }
 
     /**
@@ -824,7 +846,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
      */
     @Override
     public void removeAttribute(String name) {
-        //To change body of implemented methods use File | Settings | File Templates.
+        this.attributes.remove(name);
     }
 
     /**
@@ -24,7 +24,11 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Created with IntelliJ IDEA.
@@ -154,7 +158,7 @@ public class MockHttpServletResponse implements HttpServletResponse {
      */
     @Override
     public void sendError(int sc, String msg) throws IOException {
-        //To change body of implemented methods use File | Settings | File Templates.
+        this.status = sc;
     }
 
     /**
@@ -172,7 +176,7 @@ public class MockHttpServletResponse implements HttpServletResponse {
      */
     @Override
     public void sendError(int sc) throws IOException {
-        //To change body of implemented methods use File | Settings | File Templates.
+        this.status = sc;
     }
 
     /**
@@ -264,9 +268,16 @@ public class MockHttpServletResponse implements HttpServletResponse {
      *              (http://www.ietf.org/rfc/rfc2047.txt)
      * @see #setHeader
      */
+    public Map<String, List<String>> headers = new HashMap<String, List<String>>();
+
     @Override
     public void addHeader(String name, String value) {
-        //To change body of implemented methods use File | Settings | File Templates.
+        List<String> values = this.headers.get(name);
+        if (values == null) {
+            values = new ArrayList<String>();
+            this.headers.put(name, values);
+        }
+        values.add(value);
     }
 
     /**
@@ -313,9 +324,11 @@ public class MockHttpServletResponse implements HttpServletResponse {
      * @param sc the status code
      * @see #sendError
      */
+    public int status = SC_OK;
+
     @Override
     public void setStatus(int sc) {
-        //To change body of implemented methods use File | Settings | File Templates.
+        this.status = sc;
     }
 
     /**
@@ -58,9 +58,11 @@ public class MockHttpSession implements HttpSession {
      * @throws IllegalStateException if this method is called on an
      *                               invalidated session
      */
+    public String id = null;
+
     @Override
     public String getId() {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return this.id;
     }
 
     /**
@@ -0,0 +1,88 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+import org.scribe.builder.api.FacebookApi;
+import org.scribe.extractors.JsonTokenExtractor;
+import org.scribe.model.Verb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OAuthFilterConfigurationTest {
+
+    @Test
+    public void personUriEncodesTheUserName() {
+        OAuthFilterConfiguration configuration = new OAuthFilterConfiguration(repository());
+
+        assertEquals("http://localhost:8080/alfresco/service/people/john.doe%40example.com",
+                configuration.getPersonUri("john.doe@example.com"));
+        assertEquals("http://localhost:8080/alfresco/service/people/a%2Fb%3Fc%23d%25e%2Bf%20g%40example.com",
+                configuration.getPersonUri("a/b?c#d%e+f g@example.com"));
+    }
+
+    @Test
+    public void tokenExchangeFollowsTheOAuth2Api() {
+        Map<String, String> values = repository();
+        values.put(OAuthFilterConfiguration.API_NAME, "FacebookApi");
+        OAuthFilterConfiguration configuration = new OAuthFilterConfiguration(values);
+        FacebookApi api = new FacebookApi();
+
+        assertEquals(api.getAccessTokenEndpoint(), configuration.getApiTokenUri());
+        assertEquals(api.getAccessTokenVerb(), configuration.getApiTokenVerb());
+        assertEquals(api.getAccessTokenExtractor().getClass(), configuration.getApiTokenExtractor().getClass());
+
+        values.put(OAuthFilterConfiguration.API_TOKEN_URI, "http://127.0.0.1:8090/o/oauth2/token");
+        configuration = new OAuthFilterConfiguration(values);
+        assertEquals("http://127.0.0.1:8090/o/oauth2/token", configuration.getApiTokenUri());
+        assertEquals(api.getAccessTokenVerb(), configuration.getApiTokenVerb());
+        assertEquals(api.getAccessTokenExtractor().getClass(), configuration.getApiTokenExtractor().getClass());
+    }
+
+    @Test
+    public void tokenExchangeGoesThroughScribeWithoutAnOAuth2Api() {
+        OAuthFilterConfiguration configuration = new OAuthFilterConfiguration(repository());
+
+        assertNull(configuration.getApiTokenUri());
+    }
+
+    @Test
+    public void configuredTokenUriWithoutAnOAuth2ApiPostsJson() {
+        Map<String, String> values = repository();
+        values.put(OAuthFilterConfiguration.API_TOKEN_URI, "http://127.0.0.1:8090/o/oauth2/token");
+        OAuthFilterConfiguration configuration = new OAuthFilterConfiguration(values);
+
+        assertEquals("http://127.0.0.1:8090/o/oauth2/token", configuration.getApiTokenUri());
+        assertEquals(Verb.POST, configuration.getApiTokenVerb());
+        assertTrue(configuration.getApiTokenExtractor() instanceof JsonTokenExtractor);
+    }
+
+    static Map<String, String> repository() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(OAuthFilterConfiguration.REPOSITORY_PROTOCOL, "http");
+        values.put(OAuthFilterConfiguration.REPOSITORY_HOST, "localhost");
+        values.put(OAuthFilterConfiguration.REPOSITORY_PORT, "8080");
+        values.put(OAuthFilterConfiguration.REPOSITORY_API, "/alfresco/service");
+        return values;
+    }
+}
@@ -0,0 +1,341 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OAuthSSOAuthenticationFilterTest {
+
+    private static final String ATTR_AUTHENTICATED_USER = "test.authenticatedUser";
+
+    private static final FilterChain NOOP_CHAIN = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) {
+        }
+    };
+
+    private LocalBackendStub stub;
+    private OAuthSSOAuthenticationFilter filter;
+    private volatile boolean shareAccepts = true;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new LocalBackendStub(0, "example.com");
+        stub.start();
+        filter = newFilter(new HashMap<String, String>());
+    }
+
+    @After
+    public void tearDown() {
+        filter.destroy();
+        stub.stop();
+    }
+
+    private OAuthSSOAuthenticationFilter newFilter(Map<String, String> overrides) {
+        Map<String, String> values = new HashMap<String, String>();
+        stub.configure(values);
+        values.put(OAuthFilterConfiguration.REPOSITORY_ADMIN_USER, "admin");
+        values.put(OAuthFilterConfiguration.REPOSITORY_ADMIN_PASSWORD, "admin");
+        values.put(OAuthFilterConfiguration.USER_PASSWORD, "secret");
+        values.put(OAuthFilterConfiguration.API_NAME, "Google2Api");
+        values.put(OAuthFilterConfiguration.API_KEY, "test.apps.googleusercontent.com");
+        values.put(OAuthFilterConfiguration.API_SECRET, "test");
+        values.putAll(overrides);
+        OAuthSSOAuthenticationFilter filter = new OAuthSSOAuthenticationFilter() {
+            @Override
+            protected boolean authenticateUser(HttpServletRequest request, String username) {
+                if (!shareAccepts) {
+                    return false;
+                }
+                request.setAttribute(ATTR_AUTHENTICATED_USER, username);
+                return true;
+            }
+        };
+        filter.configure(new OAuthFilterConfiguration(values));
+        return filter;
+    }
+
+    @Test
+    public void redirectCarriesTheDigestOfTheStateCookie() throws Exception {
+        Login login = startLogin();
+
+        assertEquals(Digests.sha256Hex(login.nonce), login.state);
+        assertTrue(login.cookieHeader.contains("; Path=/share;"));
+        assertTrue(login.cookieHeader.contains("; HttpOnly"));
+        assertFalse(login.nonce.equals(startLogin().nonce));
+    }
+
+    @Test
+    public void reloadOfTheBrowserWhichStartedTheLoginIsAbsorbed() throws Exception {
+        Login login = startLogin();
+
+        assertEquals("john", callback("john", login));
+        assertEquals("john", callback("john", login));
+        assertEquals(1, stub.getRequestCount("token"));
+    }
+
+    @Test
+    public void replayedCodeWithoutTheStateCookieIsExchangedAgain() throws Exception {
+        Login login = startLogin();
+        assertEquals("john", callback("john", login));
+
+        // Never answered from an earlier login: the provider decides again
+        callback("john", null);
+        assertEquals(2, stub.getRequestCount("token"));
+
+        // The state of the callback URL does not make a cookie
+        Login forged = new Login(login.state, login.state);
+        callback("john", forged);
+        assertEquals(3, stub.getRequestCount("token"));
+
+        // Nor does the cookie of another login
+        Login other = startLogin();
+        callback("john", new Login(other.nonce, login.state));
+        assertEquals(4, stub.getRequestCount("token"));
+    }
+
+    @Test
+    public void callbackCacheCanBeDisabled() throws Exception {
+        useFilter(OAuthFilterConfiguration.API_CALLBACK_CACHE_SIZE, "0");
+        Login login = startLogin();
+
+        callback("john", login);
+        callback("john", login);
+        assertEquals(2, stub.getRequestCount("token"));
+    }
+
+    @Test
+    public void concurrentSubmitsOfABrowserShareOneExchange() throws Exception {
+        stub.setProviderLatency(300);
+        Login login = startLogin();
+
+        List<String> users = concurrentCallbacks("john", login, login, login);
+
+        assertEquals(1, stub.getRequestCount("token"));
+        for (String user : users) {
+            assertEquals("john", user);
+        }
+    }
+
+    @Test
+    public void concurrentSubmitsOfOtherBrowsersAreNotShared() throws Exception {
+        stub.setProviderLatency(300);
+
+        concurrentCallbacks("john", startLogin(), startLogin(), null, null);
+
+        assertEquals(4, stub.getRequestCount("token"));
+    }
+
+    @Test
+    public void userRejectedByShareIsProvisionedAgain() throws Exception {
+        assertEquals("john", callback("john", null));
+        long peopleRequests = stub.getRequestCount("people");
+        assertEquals("john", callback("john", null));
+        assertEquals(peopleRequests, stub.getRequestCount("people"));
+
+        // Deleted in the repository while the provisioned profile is still cached
+        stub.clearPeople();
+        shareAccepts = false;
+        assertNull(callback("john", null));
+
+        shareAccepts = true;
+        assertEquals("john", callback("john", null));
+        assertEquals(1, stub.getPeopleCount());
+    }
+
+    @Test
+    public void failedBackgroundUpdateIsRetriedOnTheNextLogin() throws Exception {
+        useFilter(OAuthFilterConfiguration.REPOSITORY_ASYNC_UPDATE_THREADS, "1");
+        stub.addPerson("john", "Former");
+        stub.setPeopleReadOnly(true);
+
+        // Lookup, then the failed update in the background
+        assertEquals("john", callback("john", null));
+        awaitRequestCount("people", 2);
+
+        // Looked up and updated again
+        stub.setPeopleReadOnly(false);
+        assertEquals("john", callback("john", null));
+        awaitRequestCount("people", 4);
+
+        // Up to date now
+        assertEquals("john", callback("john", null));
+        assertEquals(4, stub.getRequestCount("people"));
+    }
+
+    @Test
+    public void idTokenProfileIsUsed() throws Exception {
+        useFilter(OAuthFilterConfiguration.API_OPENID, "true");
+        stub.setIdTokens(true);
+
+        assertEquals("john", callback("john", null));
+        assertEquals(0, stub.getRequestCount("userinfo"));
+    }
+
+    @Test
+    public void unverifiedEmailIsRejected() throws Exception {
+        stub.setEmailVerified(false);
+        assertNull(callback("john", null));
+        assertEquals(1, stub.getRequestCount("userinfo"));
+
+        // Not read from the userinfo endpoint instead
+        useFilter(OAuthFilterConfiguration.API_OPENID, "true");
+        stub.setIdTokens(true);
+        assertNull(callback("john", null));
+        assertEquals(1, stub.getRequestCount("userinfo"));
+        assertEquals(0, stub.getPeopleCount());
+    }
+
+    @Test
+    public void consumerAccountIsAcceptedUnlessAHostedDomainIsRequired() throws Exception {
+        assertEquals("john", callback("john", null));
+
+        useFilter(OAuthFilterConfiguration.REQUIRE_HOSTED_DOMAIN, "true");
+        assertNull(callback("jane", null));
+    }
+
+    @Test
+    public void hostedDomainMustBeAllowed() throws Exception {
+        useFilter(OAuthFilterConfiguration.REQUIRE_HOSTED_DOMAIN, "true");
+        stub.setHostedDomain("example.com");
+        assertEquals("john", callback("john", null));
+
+        stub.setHostedDomain("other.com");
+        assertNull(callback("jane", null));
+    }
+
+    @Test
+    public void hostedDomainOfTheIdTokenIsChecked() throws Exception {
+        useFilter(OAuthFilterConfiguration.API_OPENID, "true");
+        stub.setIdTokens(true);
+        stub.setHostedDomain("other.com");
+
+        assertNull(callback("john", null));
+        assertEquals(0, stub.getRequestCount("userinfo"));
+    }
+
+    private void useFilter(String name, String value) {
+        filter.destroy();
+        Map<String, String> overrides = new HashMap<String, String>();
+        overrides.put(name, value);
+        filter = newFilter(overrides);
+    }
+
+    private void awaitRequestCount(String endpoint, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (stub.getRequestCount(endpoint) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, stub.getRequestCount(endpoint));
+        // Lets the background task finish with the answer
+        Thread.sleep(50);
+    }
+
+    private List<String> concurrentCallbacks(final String code, Login... logins) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(logins.length);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (final Login login : logins) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return callback(code, login);
+                    }
+                }));
+            }
+            List<String> users = new ArrayList<String>();
+            for (Future<String> future : futures) {
+                users.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return users;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The state cookie kept by a browser and the state parameter sent back to it by the provider
+     */
+    private static final class Login {
+        private final String nonce;
+        private final String state;
+        private String cookieHeader;
+
+        private Login(String nonce, String state) {
+            this.nonce = nonce;
+            this.state = state;
+        }
+    }
+
+    private static MockHttpServletRequest pageRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.contextPath = "/share";
+        request.requestURI = "/share/page/";
+        request.servletPath = "/page";
+        request.pathInfo = "/";
+        request.session = null;
+        return request;
+    }
+
+    private Login startLogin() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(pageRequest(), response, NOOP_CHAIN);
+
+        String cookieHeader = response.headers.get("Set-Cookie").get(0);
+        String prefix = OAuthSSOAuthenticationFilter.STATE_COOKIE + "=";
+        assertTrue(cookieHeader.startsWith(prefix));
+        String nonce = cookieHeader.substring(prefix.length(), cookieHeader.indexOf(';'));
+        String redirect = response.sentRedirect;
+        Login login = new Login(nonce, QueryStrings.getParameter(redirect.substring(redirect.indexOf('?') + 1), "state"));
+        login.cookieHeader = cookieHeader;
+        return login;
+    }
+
+    private String callback(String code, Login login) throws Exception {
+        MockHttpServletRequest request = pageRequest();
+        request.queryString = "code=" + code;
+        if (login != null) {
+            request.queryString += "&state=" + login.state;
+            request.cookies = new Cookie[] { new Cookie(OAuthSSOAuthenticationFilter.STATE_COOKIE, login.nonce) };
+        }
+        filter.doFilter(request, new MockHttpServletResponse(), NOOP_CHAIN);
+        return (String) request.getAttribute(ATTR_AUTHENTICATED_USER);
+    }
+}
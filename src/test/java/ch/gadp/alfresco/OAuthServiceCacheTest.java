@@ -0,0 +1,75 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+import org.scribe.oauth.OAuthService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OAuthServiceCacheTest {
+
+    private static final String CALLBACK = "https://share.example.com/share/page/";
+
+    @Test
+    public void reusesTheServiceOfANormalizedCallback() {
+        OAuthServiceCache cache = new OAuthServiceCache(configuration(), 2);
+
+        OAuthService service = cache.get(CALLBACK);
+        assertSame(service, cache.get("HTTPS://Share.Example.com/share/page/;jsessionid=ABC"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedCallbackWhenFull() {
+        OAuthServiceCache cache = new OAuthServiceCache(configuration(), 2);
+
+        OAuthService first = cache.get(CALLBACK + "a");
+        OAuthService second = cache.get(CALLBACK + "b");
+        assertSame(first, cache.get(CALLBACK + "a"));
+        OAuthService third = cache.get(CALLBACK + "c");
+
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get(CALLBACK + "a"));
+        assertSame(third, cache.get(CALLBACK + "c"));
+        assertNotSame(second, cache.get(CALLBACK + "b"));
+    }
+
+    @Test
+    public void zeroSizeBuildsOnEachCall() {
+        OAuthServiceCache cache = new OAuthServiceCache(configuration(), 0);
+
+        assertNotSame(cache.get(CALLBACK), cache.get(CALLBACK));
+        assertEquals(0, cache.size());
+    }
+
+    private static OAuthFilterConfiguration configuration() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(OAuthFilterConfiguration.API_NAME, "GoogleApi");
+        values.put(OAuthFilterConfiguration.API_KEY, "client");
+        values.put(OAuthFilterConfiguration.API_SECRET, "secret");
+        values.put(OAuthFilterConfiguration.API_SCOPE, "openid email profile");
+        values.put(OAuthFilterConfiguration.USER_DOMAIN, "example.com");
+        return new OAuthFilterConfiguration(values);
+    }
+}
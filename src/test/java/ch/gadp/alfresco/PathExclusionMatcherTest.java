@@ -0,0 +1,76 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PathExclusionMatcherTest {
+
+    private final PathExclusionMatcher matcher = new PathExclusionMatcher("/res/, /proxy/,", ".css,.js");
+
+    private static MockHttpServletRequest request(String requestURI, String servletPath, String pathInfo) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.contextPath = "/share";
+        request.requestURI = requestURI;
+        request.servletPath = servletPath;
+        request.pathInfo = pathInfo;
+        return request;
+    }
+
+    @Test
+    public void prefixesAndSuffixesAreExcluded() {
+        assertTrue(matcher.isExcluded(request("/share/res/components/x.png", "/res", "/components/x.png")));
+        assertTrue(matcher.isExcluded(request("/share/page/theme.css", "/page", "/theme.css")));
+        assertFalse(matcher.isExcluded(request("/share/page/dashboard", "/page", "/dashboard")));
+    }
+
+    @Test
+    public void traversalIsMatchedOnTheResolvedPath() {
+        // The container resolved the servlet from the normalized path
+        assertFalse(matcher.isExcluded(request("/share/res/../page/dashboard", "/page", "/dashboard")));
+        assertFalse(matcher.isExcluded(request("/share/res/%2e%2e/page/dashboard", "/page", "/dashboard")));
+    }
+
+    @Test
+    public void pathParametersAreIgnored() {
+        assertTrue(matcher.isExcluded(request("/share/res/x.css;jsessionid=1", "/res", "/x.css")));
+        assertFalse(matcher.isExcluded(request("/share/page/dashboard;.css", "/page", "/dashboard")));
+        assertFalse(matcher.isExcluded(request("/share/page;/res/dashboard", "/page", "/dashboard")));
+    }
+
+    @Test
+    public void servletMappedOnTheWholeContextGivesThePathInfo() {
+        assertTrue(matcher.isExcluded(request("/share/res/x.png", "", "/res/x.png")));
+        assertTrue(matcher.isExcluded(request("/share/res/x.png", "/res/x.png", null)));
+    }
+
+    @Test
+    public void requestWithoutPathIsNotExcluded() {
+        assertFalse(matcher.isExcluded(request(null, null, null)));
+    }
+
+    @Test
+    public void blankConfigurationExcludesNothing() {
+        PathExclusionMatcher empty = new PathExclusionMatcher(" ", null);
+
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.isExcluded(request("/share/res/x.css", "/res", "/x.css")));
+    }
+}
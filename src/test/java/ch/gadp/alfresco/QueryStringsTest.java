@@ -0,0 +1,51 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryStringsTest {
+
+    @Test
+    public void firstValueIsDecoded() {
+        assertEquals("a b/c", QueryStrings.getParameter("x=1&code=a+b%2Fc&code=2", "code"));
+    }
+
+    @Test
+    public void parameterWithoutValueIsEmpty() {
+        assertEquals("", QueryStrings.getParameter("bypassOAuth&x=1", "bypassOAuth"));
+        assertEquals("", QueryStrings.getParameter("x=1&bypassOAuth=", "bypassOAuth"));
+        assertTrue(QueryStrings.hasParameter("x=1&bypassOAuth", "bypassOAuth"));
+    }
+
+    @Test
+    public void namesMustMatchExactly() {
+        assertNull(QueryStrings.getParameter("xcode=1&codes=2&Code=3", "code"));
+        assertFalse(QueryStrings.hasParameter(null, "code"));
+        assertNull(QueryStrings.getParameter("", "code"));
+    }
+
+    @Test
+    public void malformedEscapeKeepsTheRawValue() {
+        assertEquals("a%zz", QueryStrings.getParameter("code=a%zz", "code"));
+    }
+}
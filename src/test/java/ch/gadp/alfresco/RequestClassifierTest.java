@@ -0,0 +1,81 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestClassifierTest {
+
+    private final RequestClassifier classifier = new RequestClassifier("/proxy/,/service/", true, true);
+
+    private static MockHttpServletRequest request(String servletPath, String pathInfo) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.contextPath = "/share";
+        request.servletPath = servletPath;
+        request.pathInfo = pathInfo;
+        request.requestURI = "/share" + servletPath + pathInfo;
+        return request;
+    }
+
+    @Test
+    public void pageIsANavigation() {
+        MockHttpServletRequest request = request("/page", "/dashboard");
+        request.headers.put("Accept", "text/html,application/xhtml+xml");
+
+        assertTrue(classifier.isNavigation(request));
+        assertTrue(classifier.isNavigation(request("/page", "/dashboard")));
+    }
+
+    @Test
+    public void xhrIsNotANavigation() {
+        MockHttpServletRequest request = request("/page", "/dashboard");
+        request.headers.put("X-Requested-With", "xmlhttprequest");
+
+        assertFalse(classifier.isNavigation(request));
+    }
+
+    @Test
+    public void requestNotAcceptingHtmlIsNotANavigation() {
+        MockHttpServletRequest request = request("/page", "/dashboard");
+        request.headers.put("Accept", "application/json");
+
+        assertFalse(classifier.isNavigation(request));
+    }
+
+    @Test
+    public void apiPrefixesAreMatchedOnTheResolvedPath() {
+        assertFalse(classifier.isNavigation(request("/proxy", "/alfresco/api/people")));
+
+        // "/share/proxy/../page/dashboard" resolves to the page servlet
+        MockHttpServletRequest traversal = request("/page", "/dashboard");
+        traversal.requestURI = "/share/proxy/../page/dashboard";
+        assertTrue(classifier.isNavigation(traversal));
+    }
+
+    @Test
+    public void headerChecksCanBeDisabled() {
+        RequestClassifier pathsOnly = new RequestClassifier(null, false, false);
+        MockHttpServletRequest request = request("/proxy", "/alfresco/api/people");
+        request.headers.put("X-Requested-With", "XMLHttpRequest");
+        request.headers.put("Accept", "application/json");
+
+        assertTrue(pathsOnly.isNavigation(request));
+    }
+}
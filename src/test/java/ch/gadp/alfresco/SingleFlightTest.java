@@ -0,0 +1,248 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final int WAITERS = 5;
+
+    @Test
+    public void waitersGetTheLeaderResult() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(10000);
+        BlockingTask leader = new BlockingTask("leader");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<String> leaderResult = submit(executor, flights, "john", leader);
+            leader.started.await();
+            List<Future<String>> waiterResults = new ArrayList<Future<String>>();
+            AtomicInteger waiterRuns = new AtomicInteger();
+            for (int i = 0; i < WAITERS; i++) {
+                waiterResults.add(submit(executor, flights, "john", new CountingTask("waiter", waiterRuns)));
+            }
+            // Let the waiters reach the running task
+            Thread.sleep(100);
+            leader.release.countDown();
+
+            assertEquals("leader", leaderResult.get(5, TimeUnit.SECONDS));
+            for (Future<String> result : waiterResults) {
+                assertEquals("leader", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(0, waiterRuns.get());
+            assertEquals(0, flights.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void otherKeysDoNotWait() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(10000);
+        BlockingTask leader = new BlockingTask("john");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<String> leaderResult = submit(executor, flights, "john", leader);
+            leader.started.await();
+
+            assertEquals("jane", flights.execute("jane", new CountingTask("jane", new AtomicInteger())));
+            assertEquals(1, flights.size());
+
+            leader.release.countDown();
+            assertEquals("john", leaderResult.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitersGetTheLeaderExceptionWithItsType() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(10000);
+        BlockingTask leader = new BlockingTask(new BackendUnavailableException("The repository circuit is open", 30));
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            results.add(submit(executor, flights, "john", leader));
+            leader.started.await();
+            for (int i = 0; i < WAITERS; i++) {
+                results.add(submit(executor, flights, "john", new CountingTask("waiter", new AtomicInteger())));
+            }
+            Thread.sleep(100);
+            leader.release.countDown();
+
+            for (Future<String> result : results) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("The leader exception should be thrown");
+                } catch (ExecutionException e) {
+                    assertSame(leader.failure, e.getCause());
+                    assertEquals(30, ((BackendUnavailableException) e.getCause()).getRetryAfterSeconds());
+                }
+            }
+            assertEquals(0, flights.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runtimeExceptionsAreRethrown() throws IOException {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(10000);
+        final IllegalStateException failure = new IllegalStateException("Broken");
+
+        try {
+            flights.execute("john", new SingleFlight.Task<String>() {
+                @Override
+                public String run() {
+                    throw failure;
+                }
+            });
+            fail("The task exception should be thrown");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void waiterGivesUpAfterTheTimeout() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(50);
+        BlockingTask leader = new BlockingTask("leader");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<String> leaderResult = submit(executor, flights, "john", leader);
+            leader.started.await();
+
+            AtomicInteger waiterRuns = new AtomicInteger();
+            long start = System.nanoTime();
+            try {
+                flights.execute("john", new CountingTask("waiter", waiterRuns));
+                fail("The wait should time out");
+            } catch (InterruptedIOException e) {
+                assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+            }
+            assertEquals(0, waiterRuns.get());
+
+            // The leader is not affected by the waiter giving up
+            leader.release.countDown();
+            assertEquals("leader", leaderResult.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keyIsClearedAfterCompletion() throws IOException {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(10000);
+        AtomicInteger runs = new AtomicInteger();
+
+        assertEquals("first", flights.execute("john", new CountingTask("first", runs)));
+        assertEquals(0, flights.size());
+        assertEquals("second", flights.execute("john", new CountingTask("second", runs)));
+        assertEquals(2, runs.get());
+
+        try {
+            flights.execute("john", new SingleFlight.Task<String>() {
+                @Override
+                public String run() throws IOException {
+                    throw new IOException("Connection refused");
+                }
+            });
+            fail("The task exception should be thrown");
+        } catch (IOException e) {
+            assertEquals("Connection refused", e.getMessage());
+        }
+        assertEquals(0, flights.size());
+        assertEquals("third", flights.execute("john", new CountingTask("third", runs)));
+    }
+
+    private static Future<String> submit(ExecutorService executor, final SingleFlight<String, String> flights,
+                                         final String key, final SingleFlight.Task<String> task) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return flights.execute(key, task);
+            }
+        });
+    }
+
+    private static final class CountingTask implements SingleFlight.Task<String> {
+        private final String result;
+        private final AtomicInteger runs;
+
+        private CountingTask(String result, AtomicInteger runs) {
+            this.result = result;
+            this.runs = runs;
+        }
+
+        @Override
+        public String run() {
+            runs.incrementAndGet();
+            return result;
+        }
+    }
+
+    private static final class BlockingTask implements SingleFlight.Task<String> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final String result;
+        private final IOException failure;
+
+        private BlockingTask(String result) {
+            this.result = result;
+            this.failure = null;
+        }
+
+        private BlockingTask(IOException failure) {
+            this.result = null;
+            this.failure = failure;
+        }
+
+        @Override
+        public String run() throws IOException {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+}
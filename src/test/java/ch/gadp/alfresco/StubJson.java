@@ -0,0 +1,76 @@
+/*
+This file is part of oauth-login-module.
+
+oauth-login-module is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+oauth-login-module is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with oauth-login-module.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.gadp.alfresco;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+import java.lang.reflect.Type;
+
+/**
+ * Writes the documents served by the stub provider and repository. The filter adapters only read, so the
+ * documents whose fields are named like their JSON members are written by reflection and the id_token claims
+ * by a serializer using the OpenID Connect names.
+ */
+final class StubJson {
+
+    static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(IdTokenClaims.class, new IdTokenClaimsSerializer())
+            .create();
+
+    private StubJson() {
+    }
+
+    private static final class IdTokenClaimsSerializer implements JsonSerializer<IdTokenClaims> {
+
+        @Override
+        public JsonElement serialize(IdTokenClaims claims, Type type, JsonSerializationContext context) {
+            JsonObject json = new JsonObject();
+            json.addProperty("iss", claims.issuer);
+            if (claims.audience.size() == 1) {
+                json.addProperty("aud", claims.audience.get(0));
+            } else {
+                JsonArray audience = new JsonArray();
+                for (String value : claims.audience) {
+                    audience.add(new JsonPrimitive(value));
+                }
+                json.add("aud", audience);
+            }
+            json.addProperty("exp", claims.expiresAt);
+            json.addProperty("iat", claims.issuedAt);
+            json.addProperty("sub", claims.subject);
+            json.addProperty("email", claims.email);
+            json.addProperty("email_verified", claims.emailVerified);
+            json.addProperty("name", claims.name);
+            json.addProperty("given_name", claims.givenName);
+            json.addProperty("family_name", claims.familyName);
+            json.addProperty("picture", claims.picture);
+            json.addProperty("locale", claims.locale);
+            if (claims.hostedDomain != null) {
+                json.addProperty("hd", claims.hostedDomain);
+            }
+            return json;
+        }
+    }
+}